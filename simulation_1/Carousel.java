@@ -10,7 +10,7 @@ public class Carousel {
 
     // the items in the carousel segments
     protected Vial[] compartments;
-    protected static CarouselLock lock;
+    protected final CarouselLock lock;
 
     // to help format output trace
     final private static String indentation = "                  ";
@@ -19,7 +19,7 @@ public class Carousel {
      * Create a new, empty carousel, initialised to be empty.
      */
     public Carousel() {
-        this.lock = CarouselLock.getInstance();
+        this.lock = new CarouselLock();
         compartments = new Vial[Params.CAROUSEL_SIZE];
         Arrays.fill(compartments, null);
     }
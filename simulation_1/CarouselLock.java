@@ -1,14 +1,10 @@
+/**
+ * The monitor of one carousel. Each carousel has its own, so separate carousels (and separate simulations) do not
+ * wait on each other.
+ */
 public class CarouselLock {
-    private static CarouselLock instance;
 
-    private CarouselLock() {};
-
-    public static CarouselLock getInstance() {
-        if (instance == null) {
-            instance = new CarouselLock();
-        }
-        return instance;
-    }
+    public CarouselLock() {};
 
     public void whoHasTheLock() {
         System.out.println(Thread.currentThread().getName() + " has the lock");
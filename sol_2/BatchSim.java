@@ -0,0 +1,322 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A headless simulator for experiment campaigns. It runs the plant until a number of vials have left it (distributed
+ * or destroyed), stops every component, and prints one JSON object with the wall and simulated time, throughput,
+ * counts, stage latencies and blocked-rotation ratio of the run. The trace is off unless asked for. With --parallel
+ * it runs several independent plants side by side, each with its own SimulationContext and seed, and prints a JSON
+ * list of their reports. The report is the only thing on standard output: everything else the components print,
+ * and the trace if it is on, goes to standard error, so that standard output parses as JSON.
+ */
+public class BatchSim {
+
+    /**
+     * The main method to run a batch.
+     *
+     * @param args : --vials=N to leave the plant before stopping (default 100), --engine=threads|des (default des),
+     *             --carousel=monitor|bypass, or for the threads engine also lock|cas (default monitor), and
+     *             for the threads engine --threads=platform|virtual and --drain=MS
+     *             for the longest time to let the vials drain out of the plant before stopping it (default 0), and
+     *             --seed=N, --trace=async|sync|off (default off), --parallel=K to run K plants at once with seeds
+     *             N to N+K-1 (default 1), --report=FILE to write the report to a file instead of standard output,
+     *             and --NAME=VALUE for any of Params.NAMES
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // keep standard output for the report
+        PrintStream stdout = System.out;
+        System.setOut(System.err);
+
+        long vials = 100;
+        String engine = "des";
+        String carouselMode = "monitor";
+        String threadMode = "platform";
+        String reportFile = null;
+        int parallel = 1;
+        long drainMillis = 0;
+        RandomStreams random = new RandomStreams();
+        Trace.setMode(Trace.Mode.OFF);
+        for (String arg : args) {
+            if (arg.startsWith("--vials=")) {
+                vials = Long.parseLong(arg.substring("--vials=".length()));
+            } else if (arg.startsWith("--engine=")) {
+                engine = arg.substring("--engine=".length());
+            } else if (arg.startsWith("--carousel=")) {
+                carouselMode = arg.substring("--carousel=".length());
+            } else if (arg.startsWith("--threads=")) {
+                threadMode = arg.substring("--threads=".length());
+            } else if (arg.startsWith("--seed=")) {
+                random = new RandomStreams(Long.parseLong(arg.substring("--seed=".length())));
+            } else if (arg.startsWith("--trace=")) {
+                Trace.setMode(Trace.Mode.valueOf(arg.substring("--trace=".length()).toUpperCase()));
+            } else if (arg.startsWith("--drain=")) {
+                drainMillis = Long.parseLong(arg.substring("--drain=".length()));
+            } else if (arg.startsWith("--parallel=")) {
+                parallel = Integer.parseInt(arg.substring("--parallel=".length()));
+            } else if (arg.startsWith("--report=")) {
+                reportFile = arg.substring("--report=".length());
+            }
+        }
+
+        Params params = Params.DEFAULT.withArgs(args);
+
+        Object report;
+        if (parallel == 1) {
+            report = run(engine, vials, carouselMode, threadMode, drainMillis, random, params);
+        } else {
+            // each plant has its own context, so they share nothing but the process
+            List<Map<String, Object>> reports = new ArrayList<>();
+            List<Thread> runners = new ArrayList<>();
+            for (int k = 0; k < parallel; k++) {
+                reports.add(null);
+                int index = k;
+                String engineName = engine;
+                long target = vials;
+                String carousel = carouselMode;
+                String threads = threadMode;
+                long drain = drainMillis;
+                RandomStreams streams = new RandomStreams(random.getSeed() + k);
+                runners.add(new Thread(() -> reports.set(index,
+                        run(engineName, target, carousel, threads, drain, streams, params)), "batch-" + k));
+            }
+            for (Thread runner : runners) {
+                runner.start();
+            }
+            for (Thread runner : runners) {
+                runner.join();
+            }
+            report = reports;
+        }
+        Trace.flush();
+
+        if (reportFile == null) {
+            stdout.println(toJson(report));
+            stdout.flush();
+        } else {
+            try (PrintStream out = new PrintStream(reportFile)) {
+                out.println(toJson(report));
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Run one plant on the engine asked for.
+     *
+     * @return the report of the run
+     */
+    private static Map<String, Object> run(String engine, long vials, String carouselMode, String threadMode,
+            long drainMillis, RandomStreams random, Params params) {
+        switch (engine) {
+            case "des":
+                return runDes(vials, carouselMode, random, params);
+            case "threads":
+                return runThreads(vials, carouselMode, ComponentThreads.forMode(threadMode), drainMillis, random,
+                        params);
+            default:
+                throw new IllegalArgumentException("unknown engine: " + engine);
+        }
+    }
+
+    /**
+     * Run the plant in simulated time until a number of vials have left it.
+     *
+     * @param vials : the number of vials distributed or destroyed to stop at
+     * @param carouselMode : the main carousel implementation, as for Sim
+     * @param random : where the components' random choices come from
+     * @param params : the configuration of the run
+     * @return the report of the run
+     */
+    static Map<String, Object> runDes(long vials, String carouselMode, RandomStreams random, Params params) {
+        DiscreteEventSim sim = new DiscreteEventSim(random, params, carouselMode, InspectionPool.Policy.ROUND_ROBIN);
+        long start = System.nanoTime();
+        Exception terminateException = null;
+        try {
+            sim.run(Long.MAX_VALUE, vials);
+        } catch (OverloadException e) {
+            terminateException = e;
+        }
+        long wall = System.nanoTime() - start;
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("engine", "des");
+        report.put("carousel", carouselMode);
+        complete(report, random, params, vials, sim.getDistributed(), sim.getDestroyed(), wall, sim.now(),
+                sim.getRotations(), sim.getRotationsBlocked(), sim.getRotationsIdle(), terminateException, true);
+        report.put("latency_ms", latencies(sim.getStats()));
+        return report;
+    }
+
+    /**
+     * Run the plant on threads until a number of vials have left it, then have a Supervisor stop the producer, let
+     * the vials in the plant drain for a while, and stop every other component.
+     *
+     * @param vials : the number of vials distributed or destroyed to stop at
+     * @param carouselMode : the main carousel implementation, as for Sim
+     * @param threads : where the components' threads come from
+     * @param drainMillis : the longest time to let the vials drain before stopping, or 0 not to
+     * @param random : where the components' random choices come from
+     * @param params : the configuration of the run
+     * @return the report of the run
+     */
+    static Map<String, Object> runThreads(long vials, String carouselMode, ThreadFactory threads, long drainMillis,
+            RandomStreams random, Params params) {
+        SimulationContext context = new SimulationContext(random, params);
+
+        // Components of the main carousel subsystem
+        Carousel mainCarousel = Sim.newCarousel(carouselMode, params);
+        CarouselDrive mainDriver = new CarouselDrive(mainCarousel, context);
+        Producer producer = new Producer(mainCarousel, context);
+        Consumer distributor = new Consumer(mainCarousel, context);
+
+        // Components of the destroyer carousel subsystem
+        Carousel destroyerCarousel = new DestroyerCarousel();
+        Consumer destroyer = new Consumer(destroyerCarousel, context);
+        CarouselDrive destroyerDriver = new CarouselDrive(destroyerCarousel, context);
+
+        // Components of the shuttle subsystem
+        InspectionPool inspectionBays = new InspectionPool(params.inspectionBays, InspectionPool.Policy.ROUND_ROBIN,
+                destroyerCarousel, context);
+        Shuttle shuttle = new Shuttle(mainCarousel, inspectionBays, context);
+
+        Supervisor supervisor = new Supervisor(context);
+        supervisor.addSource(producer);
+        for (VaccineHandlingThread component : List.of(mainDriver, distributor, shuttle)) {
+            supervisor.add(component);
+        }
+        for (InspectionBay inspectionBay : inspectionBays.getBays()) {
+            supervisor.add(inspectionBay);
+        }
+        supervisor.add(destroyerDriver);
+        supervisor.add(destroyer);
+
+        // every vial taken off either carousel counts towards the batch, which ends the run when it is done
+        CountDownLatch left = new CountDownLatch((int) Math.min(vials, Integer.MAX_VALUE));
+        distributor.setTakenLatch(left);
+        destroyer.setTakenLatch(left);
+
+        // run the batch, unless a component fails or stops first, then stop every component
+        long start = System.nanoTime();
+        supervisor.start(threads);
+        supervisor.awaitEnd(0);
+        long wall = System.nanoTime() - start;
+        supervisor.shutdown(drainMillis, 1000);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("engine", "threads");
+        report.put("carousel", carouselMode);
+        complete(report, random, params, vials, distributor.getConsumed(), destroyer.getConsumed(), wall,
+                TimeUnit.NANOSECONDS.toMillis(wall), mainDriver.getRotations(), mainDriver.getRotationsBlocked(),
+                mainDriver.getRotationsIdle(), context.getTerminateException(), supervisor.getStuck().isEmpty());
+        report.put("ended_by", context.getEndedBy());
+        report.put("produced", producer.getProduced());
+        report.put("shutdown_ms", supervisor.getShutdownMillis());
+        report.put("drain_ms", supervisor.getDrainMillis());
+        report.put("drained", supervisor.isDrained());
+        report.put("left_in_flight", supervisor.getLeftInFlight());
+        report.put("still_running", supervisor.getStuck());
+        report.put("latency_ms", latencies(context.getStats()));
+        return report;
+    }
+
+    /**
+     * Add the counts and rates common to both engines to a report.
+     */
+    private static Map<String, Object> complete(Map<String, Object> report, RandomStreams random, Params params,
+            long vials, long distributed, long destroyed, long wallNanos, long simMillis, long rotations,
+            long rotationsBlocked, long rotationsIdle, Exception terminateException, boolean clean) {
+        report.put("seed", random.getSeed());
+        for (String name : Params.NAMES) {
+            report.put(name, params.get(name));
+        }
+        report.put("vials_target", vials);
+        report.put("distributed", distributed);
+        report.put("destroyed", destroyed);
+        report.put("wall_ms", wallNanos / 1e6);
+        report.put("sim_ms", simMillis);
+        report.put("throughput_per_min", simMillis == 0 ? 0.0 : (distributed + destroyed) * 60000.0 / simMillis);
+        report.put("rotations", rotations);
+        report.put("rotations_blocked", rotationsBlocked);
+        report.put("rotations_idle", rotationsIdle);
+        report.put("blocked_rotation_ratio", rotations == 0 ? 0.0 : (double) rotationsBlocked / rotations);
+        report.put("terminated_by", terminateException == null ? null : terminateException.toString());
+        report.put("clean_shutdown", clean);
+        return report;
+    }
+
+    /**
+     * @return the count, p50, p90, p99 and max of every stage in some statistics, by stage
+     */
+    static Map<String, Object> latencies(LatencyStats stats) {
+        Map<String, Object> stages = new LinkedHashMap<>();
+        for (LatencyStats.Stage stage : LatencyStats.Stage.values()) {
+            LatencyHistogram histogram = stats.get(stage);
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("count", histogram.getCount());
+            values.put("p50", histogram.getValueAtPercentile(50));
+            values.put("p90", histogram.getValueAtPercentile(90));
+            values.put("p99", histogram.getValueAtPercentile(99));
+            values.put("max", histogram.getMax());
+            stages.put(stage.name().toLowerCase(), values);
+        }
+        return stages;
+    }
+
+    /**
+     * Write a report as JSON. Values are maps, lists, strings, numbers, booleans or null.
+     */
+    static String toJson(Object value) {
+        StringBuilder json = new StringBuilder();
+        appendJson(json, value);
+        return json.toString();
+    }
+
+    private static void appendJson(StringBuilder json, Object value) {
+        if (value instanceof Map) {
+            json.append('{');
+            String separator = "";
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                json.append(separator);
+                appendJson(json, entry.getKey().toString());
+                json.append(':');
+                appendJson(json, entry.getValue());
+                separator = ",";
+            }
+            json.append('}');
+        } else if (value instanceof List) {
+            json.append('[');
+            String separator = "";
+            for (Object element : (List<?>) value) {
+                json.append(separator);
+                appendJson(json, element);
+                separator = ",";
+            }
+            json.append(']');
+        } else if (value instanceof String) {
+            json.append('"');
+            for (char c : ((String) value).toCharArray()) {
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < ' ') {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            json.append('"');
+        } else if (value instanceof Double) {
+            double d = (Double) value;
+            json.append(Double.isFinite(d) ? String.format(Locale.ROOT, "%.3f", d) : "null");
+        } else {
+            json.append(value);
+        }
+    }
+}
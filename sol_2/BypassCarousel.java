@@ -0,0 +1,103 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A main carousel with a bypass lane at the scanner compartment. A defective vial arriving at compartment #3 is
+ * diverted at once into a bounded side buffer, so the carousel can keep rotating instead of waiting for the shuttle
+ * to collect it. The shuttle takes defective vials from the bypass lane, oldest first. Only when the lane is full
+ * does a defective vial stay in compartment #3 and hold the carousel, as it always does in a Carousel; it moves into
+ * the lane as soon as the shuttle makes room.
+ */
+public class BypassCarousel extends Carousel {
+
+    // the defective vials diverted from the scanner compartment, oldest first, and how many the lane holds
+    protected final ArrayDeque<Vial> bypass;
+    protected final int capacity;
+
+    // the vials diverted into the bypass lane
+    protected final LongAdder bypassed = Metrics.counter("bypassed");
+
+    /**
+     * Create a new, empty carousel with a bypass lane.
+     *
+     * @param size : the number of compartments
+     * @param capacity : the number of defective vials the bypass lane holds
+     */
+    public BypassCarousel(int size, int capacity) {
+        super(size);
+        if (capacity < 1) {
+            throw new IllegalArgumentException("a bypass lane holds at least one vial");
+        }
+        this.capacity = capacity;
+        this.bypass = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * @return the number of vials in the bypass lane
+     */
+    public synchronized int getBypassOccupancy() {
+        return bypass.size();
+    }
+
+    /**
+     * Get a defective vial from the bypass lane for inspection, waiting for one if the lane is empty.
+     *
+     * @param i : the scanner compartment; the vial comes from its bypass lane
+     * @return the vial to be sent to the inspection subsystem
+     */
+    @Override
+    public synchronized Vial getVialForInspection(int i) throws InterruptedException {
+        MonitorProfile.Section profile = MonitorProfile.enter(name, "getVialForInspection");
+        try {
+            while (bypass.isEmpty()) {
+                profile.await(this);
+            }
+            Vial vial = bypass.poll();
+            divert();
+            notifyAll();
+            return vial;
+        } finally {
+            profile.exit();
+        }
+    }
+
+    /**
+     * Get a defective vial from the bypass lane for inspection only if there is one, without blocking.
+     *
+     * @param i : the scanner compartment; the vial comes from its bypass lane
+     * @return the vial to be sent to the inspection subsystem, or null if the lane is empty
+     */
+    @Override
+    public synchronized Vial tryGetVialForInspection(int i) {
+        Vial vial = bypass.poll();
+        if (vial == null) {
+            return null;
+        }
+        divert();
+        notifyAll();
+        return vial;
+    }
+
+    /**
+     * Rotate the carousel, then divert the vial that has arrived at the scanner compartment if it is defective.
+     */
+    @Override
+    protected void advance() throws OverloadException {
+        super.advance();
+        divert();
+    }
+
+    /**
+     * Move a defective vial that needs inspecting from compartment #3 into the bypass lane, if there is room.
+     */
+    protected void divert() {
+        Vial vial = vialAt(2);
+        if (vial == null || !vial.isDefective() || vial.isInspected() || bypass.size() >= capacity) {
+            return;
+        }
+        setVialAt(2, null);
+        bypass.add(vial);
+        bypassed.increment();
+        Trace.record(TraceEvent.BYPASSED, vial, 3, 0, name);
+    }
+}
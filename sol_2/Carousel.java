@@ -6,12 +6,21 @@
  */
 public class Carousel {
 
-    // the items in the carousel segments
+    // the items in the carousel segments, stored as a ring buffer
     protected Vial[] compartment;
     protected int size;
 
-    // to help format output trace
-    final protected static String indentation = "                  ";
+    // how the carousel is referred to in the output trace
+    protected String name;
+
+    // the slot of compartment[] that currently holds compartment 0; rotating
+    // the carousel moves this index back by one instead of moving the vials
+    protected int head;
+
+    // which compartments hold a vial, and which hold a defective vial, by
+    // compartment number so that the rotate guard is a few bit tests
+    protected CompartmentMask occupied;
+    protected CompartmentMask defective;
 
     /**
      * Create a new, empty carousel with a specified number of compartments
@@ -19,6 +28,10 @@ public class Carousel {
     public Carousel(int size) {
         compartment = new Vial[size];
         this.size = size;
+        this.name = "main carousel";
+        this.head = 0;
+        this.occupied = new CompartmentMask(size);
+        this.defective = new CompartmentMask(size);
         for (int i = 0; i < compartment.length; i++) {
             compartment[i] = null;
         }
@@ -28,11 +41,7 @@ public class Carousel {
      * Create a new, empty carousel, initialised to be empty with the default number of compartments.
      */
     public Carousel() {
-        compartment = new Vial[Params.CAROUSEL_SIZE];
-        this.size = compartment.length;
-        for (int i = 0; i < compartment.length; i++) {
-            compartment[i] = null;
-        }
+        this(Params.DEFAULT.carouselSize);
     }
 
     /**
@@ -42,6 +51,49 @@ public class Carousel {
      */
     public int getSize() { return size; };
 
+    /**
+     * Set how the carousel is referred to in the output trace, e.g. to tell lanes apart
+     *
+     * @param name : the name used in the output trace
+     */
+    public void setName(String name) { this.name = name; }
+
+    /**
+     * @return how the carousel is referred to in the output trace
+     */
+    public String getName() { return name; }
+
+    /**
+     * Resolve a compartment number to its slot in the ring buffer.
+     *
+     * @param i : the compartment at i-1
+     * @return the index into compartment[] holding that compartment
+     */
+    protected int slot(int i) {
+        int s = head + i;
+        return s >= size ? s - size : s;
+    }
+
+    /**
+     * @param i : the compartment at i-1
+     * @return the vial in the compartment, or null if it is empty
+     */
+    protected Vial vialAt(int i) {
+        return compartment[slot(i)];
+    }
+
+    /**
+     * Place a vial in (or, with null, clear) a compartment.
+     *
+     * @param i : the compartment at i-1
+     * @param vial : the vial to store, or null to empty the compartment
+     */
+    protected void setVialAt(int i, Vial vial) {
+        compartment[slot(i)] = vial;
+        occupied.set(i, vial != null);
+        defective.set(i, vial != null && vial.isDefective());
+    }
+
     /**
      * Insert a vial into the carousel.
      * 
@@ -52,20 +104,48 @@ public class Carousel {
      */
     public synchronized void putVial(Vial vial, int i)
             throws InterruptedException {
+        MonitorProfile.Section profile = MonitorProfile.enter(name, "putVial");
+        try {
+            // while there is another vial in the way, block this thread
+            while (vialAt(i) != null) {
+                profile.await(this);
+            }
 
-    	// while there is another vial in the way, block this thread
-        while (compartment[i] != null) {
-            wait();
-        }
+            // insert the element at the specified location
+            setVialAt(i, vial);
 
-        // insert the element at the specified location
-        compartment[i] = vial;
+            // make a note of the event in output trace
+            Trace.record(TraceEvent.INSERTED, vial, 0, i+1, name);
 
-        // make a note of the event in output trace
-        System.out.println(vial + " inserted");
+            // notify any waiting threads that the carousel state has changed
+            notifyAll();
+        } finally {
+            profile.exit();
+        }
+    }
 
-        // notify any waiting threads that the carousel state has changed
+    /**
+     * Insert a vial into the carousel only if the compartment is empty, without blocking.
+     *
+     * @param vial : the vial to insert into the carousel.
+     * @param i : the compartment at i-1
+     * @return true if the vial was inserted, false if there was another vial in the way
+     */
+    public synchronized boolean tryPutVial(Vial vial, int i) {
+        if (vialAt(i) != null) {
+            return false;
+        }
+        setVialAt(i, vial);
+        Trace.record(TraceEvent.INSERTED, vial, 0, i+1, name);
         notifyAll();
+        return true;
+    }
+
+    /**
+     * @return the number of vials currently on the carousel
+     */
+    public synchronized int getOccupancy() {
+        return occupied.cardinality();
     }
 
     /**
@@ -77,26 +157,49 @@ public class Carousel {
      *             if the thread executing is interrupted
      */
     public synchronized Vial getVial(int i) throws InterruptedException {
+        MonitorProfile.Section profile = MonitorProfile.enter(name, "getVial");
+        try {
+            // the vial to be removed
+            Vial vial;
+
+            // while there is no vial in the specified compartment, block this thread
+            while (vialAt(i) == null) {
+                profile.await(this);
+            }
 
-    	// the vial to be removed
-        Vial vial;
+            // get the vial
+            vial = vialAt(i);
+            setVialAt(i, null);
 
-        // while there is no vial in the specified compartment, block this thread
-        while (compartment[i] == null) {
-            wait();
-        }
+            // print the removal message for the last
+            if (i == size - 1) {
+                // make a note of the event in output trace
+                removeMessage(vial);
+            }
 
-        // get the vial
-        vial = compartment[i];
-        compartment[i] = null;
+            // notify any waiting threads that the carousel has changed
+            notifyAll();
+            return vial;
+        } finally {
+            profile.exit();
+        }
+    }
 
-        // print the removal message for the last
+    /**
+     * Remove a vial from a compartment of the carousel only if there is one, without blocking.
+     *
+     * @param i : the compartment at i-1
+     * @return the removed vial, or null if the compartment is empty
+     */
+    public synchronized Vial tryGetVial(int i) {
+        Vial vial = vialAt(i);
+        if (vial == null) {
+            return null;
+        }
+        setVialAt(i, null);
         if (i == size - 1) {
-            // make a note of the event in output trace
             removeMessage(vial);
         }
-
-        // notify any waiting threads that the carousel has changed
         notifyAll();
         return vial;
     }
@@ -106,7 +209,7 @@ public class Carousel {
      * @param vial : the vial to be printed in the message
      */
     protected void removeMessage(Vial vial) {
-        System.out.println(indentation + indentation + vial + " removed");
+        Trace.record(TraceEvent.REMOVED, vial, size, 0, name);
     }
 
     /**
@@ -116,23 +219,87 @@ public class Carousel {
      * @return : the vial to sent to the inspection subsystem
      */
     public synchronized Vial getVialForInspection(int i) throws InterruptedException {
-        Vial vial;
+        MonitorProfile.Section profile = MonitorProfile.enter(name, "getVialForInspection");
+        try {
+            Vial vial;
+
+            // Block this thread if there is no vial or if the vial does not need to be inspected
+            while (vialAt(i) == null || // the compartment is empty
+                    !vialAt(i).isDefective() || // the vial in the compartment is not defective
+                    vialAt(i).isInspected()) { // the vial in the compartment has been inspected
+                profile.await(this);
+            }
+
+            // Take out the vial
+            vial = vialAt(i);
+            setVialAt(i, null);
 
-        // Block this thread if there is no vial or if the vial does not need to be inspected
-        while (compartment[i] == null || // the compartment is empty
-                !compartment[i].isDefective() || // the vial in the compartment is not defective
-                compartment[i].isInspected()) { // the vial in the compartment has been inspected
-            wait();
+            notifyAll();
+            return vial;
+        } finally {
+            profile.exit();
         }
+    }
 
-        // Take out the vial
-        vial = compartment[i];
-        compartment[i] = null;
+    /**
+     * Get a vial for inspection, waiting at most some time for one that needs inspecting.
+     *
+     * @param i : the vial at compartment i-1
+     * @param millis : the longest time to wait, more than 0
+     * @return the vial to be sent to the inspection subsystem, or null if there was none in time
+     * @throws InterruptedException
+     *             if the thread executing is interrupted
+     */
+    public synchronized Vial getVialForInspection(int i, long millis) throws InterruptedException {
+        MonitorProfile.Section profile = MonitorProfile.enter(name, "getVialForInspection");
+        try {
+            long deadline = System.currentTimeMillis() + millis;
+            while (true) {
+                Vial vial = tryGetVialForInspection(i);
+                long left = deadline - System.currentTimeMillis();
+                if (vial != null || left <= 0) {
+                    return vial;
+                }
+                profile.await(this, left);
+            }
+        } finally {
+            profile.exit();
+        }
+    }
 
+    /**
+     * Get a vial for inspection only if there is one that needs inspecting, without blocking.
+     *
+     * @param i : the vial at compartment i-1
+     * @return the vial to be sent to the inspection subsystem, or null if there is none
+     */
+    public synchronized Vial tryGetVialForInspection(int i) {
+        Vial vial = vialAt(i);
+        if (vial == null || !vial.isDefective() || vial.isInspected()) {
+            return null;
+        }
+        setVialAt(i, null);
         notifyAll();
         return vial;
     }
 
+    /**
+     * Look ahead of a compartment for a vial on its way there that will need inspecting.
+     *
+     * @param i : the compartment at i-1
+     * @param lookahead : the number of compartments before it to look at
+     * @return true if a defective vial that has not been inspected is in one of them
+     */
+    public synchronized boolean isInspectionComing(int i, int lookahead) {
+        for (int c = Math.max(0, i - lookahead); c < i; c++) {
+            Vial vial = vialAt(c);
+            if (vial != null && vial.isDefective() && !vial.isInspected()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Rotate the carousel one position.
      * 
@@ -143,47 +310,89 @@ public class Carousel {
      */
     public synchronized void rotate() 
             throws InterruptedException, OverloadException {
+        MonitorProfile.Section profile = MonitorProfile.enter(name, "rotate");
+        try {
+            while (!canRotate()) {
+                profile.await(this);
+            }
+
+            advance();
+
+            // notify any waiting threads that the carousel has changed
+            notifyAll();
+        } finally {
+            profile.exit();
+        }
+    }
+
+    /**
+     * Rotate the carousel one position only if it can rotate now, without blocking. It is profiled with rotate(),
+     * which the drive only falls back on when this fails, so that the profile covers every rotation.
+     *
+     * @return true if the carousel rotated, otherwise false
+     * @throws OverloadException
+     *             if a vial is rotated beyond the final compartment.
+     */
+    public synchronized boolean tryRotate() throws OverloadException {
+        MonitorProfile.Section profile = MonitorProfile.enter(name, "rotate");
+        try {
+            if (!canRotate()) {
+                return false;
+            }
+            advance();
+            notifyAll();
+            return true;
+        } finally {
+            profile.exit();
+        }
+    }
 
+    /**
+     * Check whether the carousel may rotate.
+     * @return true if the carousel may rotate, otherwise false
+     */
+    protected boolean canRotate() {
         // if there is in the final compartment, or the carousel is empty,
         // or a vial needs to be removed for inspection, do not move the carousel
-        while (isEmpty() || // do NOT rotate if the carousel is empty
-        		compartment[compartment.length-1] != null || // do NOT rotate if the final compartment contains a vial
-                isVialInC3Defective() // do NOT rotate if compartment #3 has a DEFECTIVE vial
-                ) {
-            wait();
-        }
+        return !(isEmpty() || // do NOT rotate if the carousel is empty
+                occupied.get(size-1) || // do NOT rotate if the final compartment contains a vial
+                isVialInC3Defective()); // do NOT rotate if compartment #3 has a DEFECTIVE vial
+    }
+
+    /**
+     * Move every vial along one compartment by stepping the head of the ring
+     * buffer back one slot. The slot that held the (empty) final compartment
+     * becomes compartment 0, so no vials are copied.
+     *
+     * @throws OverloadException
+     *             if a vial is rotated beyond the final compartment.
+     */
+    protected void advance() throws OverloadException {
 
         // double check that a vial cannot be rotated beyond the final compartment
-        if (compartment[compartment.length-1] != null) {
+        if (occupied.get(size-1)) {
             String message = "vial rotated beyond final compartment";
             throw new OverloadException(message);
         }
 
-        // move the elements along, making position 0 null
-        for (int i = compartment.length-1; i > 0; i--) {
-            if (this.compartment[i-1] != null) {
-                System.out.println(
-                		indentation +
-                		this.compartment[i-1] +
-                        " [ c" + (i) + " -> c" + (i+1) + " ] main carousel");
-            }
-            compartment[i] = compartment[i-1];
+        // make a note of each movement in the output trace, visiting only the
+        // compartments that hold a vial
+        for (int i = occupied.previousSetBit(size-2); i >= 0; i = occupied.previousSetBit(i-1)) {
+            Trace.record(TraceEvent.ROTATED, vialAt(i), i+1, i+2, name);
         }
-        compartment[0] = null;
-        
-        // notify any waiting threads that the carousel has changed
-        notifyAll();
+
+        // the old final compartment is now compartment 0
+        head = (head == 0 ? size : head) - 1;
+        occupied.shift();
+        defective.shift();
     }
 
     /**
      * Check whether the vial in C3 is defective
      * @return true if there is a vial in C3 and it is defective, otherwise false
      */
-    private synchronized Boolean isVialInC3Defective() {
-        if (compartment[2] != null) {
-            return compartment[2].isDefective();
-        }
-        return false;
+    protected boolean isVialInC3Defective() {
+        return defective.get(2);
     }
  
     /**
@@ -191,16 +400,15 @@ public class Carousel {
      * @return true if the carousel is currently empty, otherwise false
      */
     protected boolean isEmpty() {
-        for (int i = 0; i < compartment.length; i++) {
-            if (compartment[i] != null) {
-                return false;
-            }
-        }
-        return true;
+        return occupied.isEmpty();
     }
     
     public String toString() {
-        return java.util.Arrays.toString(compartment);
+        Vial[] ordered = new Vial[size];
+        for (int i = 0; i < size; i++) {
+            ordered[i] = vialAt(i);
+        }
+        return java.util.Arrays.toString(ordered);
     }
 
 }
@@ -0,0 +1,181 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the carousel operations under contention, with the components' sleeps taken out: producers call
+ * putVial at compartment 0, the same number of consumers call getVial at the final compartment, one shuttle calls
+ * getVialForInspection at compartment #3 and one drive calls rotate, all as fast as they can. Every combination
+ * of carousel implementation, carousel size, number of producer/consumer threads and defect probability is warmed
+ * up and then measured, and the operations per second and the p50/p99 latency of each operation are printed.
+ */
+public class CarouselBenchmark {
+
+    // the operations measured, in the order they are reported
+    private static final String[] OPERATIONS = { "putVial", "getVial", "getVialForInspection", "rotate" };
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args : --carousel=monitor,lock,cas (default all three), --sizes=5,16,64 (default),
+     *             --threads=1,2,4 (producer/consumer pairs, default), --defect=0,0.1,0.5 (default),
+     *             --millis=N to measure each combination for (default 1000; a quarter of that is warm-up)
+     */
+    public static void main(String[] args) throws InterruptedException {
+        String[] carousels = { "monitor", "lock", "cas" };
+        int[] sizes = { 5, 16, 64 };
+        int[] threadCounts = { 1, 2, 4 };
+        double[] defects = { 0, 0.1, 0.5 };
+        long millis = 1000;
+        for (String arg : args) {
+            if (arg.startsWith("--carousel=")) {
+                carousels = arg.substring("--carousel=".length()).split(",");
+            } else if (arg.startsWith("--sizes=")) {
+                sizes = parseInts(arg.substring("--sizes=".length()));
+            } else if (arg.startsWith("--threads=")) {
+                threadCounts = parseInts(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--defect=")) {
+                String[] values = arg.substring("--defect=".length()).split(",");
+                defects = new double[values.length];
+                for (int v = 0; v < values.length; v++) {
+                    defects[v] = Double.parseDouble(values[v]);
+                }
+            } else if (arg.startsWith("--millis=")) {
+                millis = Long.parseLong(arg.substring("--millis=".length()));
+            }
+        }
+
+        // the carousels trace every movement, which is not what is being measured here
+        Trace.setMode(Trace.Mode.OFF);
+
+        StringBuilder header = new StringBuilder(String.format("%-8s %5s %7s %6s %10s", "carousel", "size",
+                "threads", "defect", "ops/s"));
+        for (String operation : OPERATIONS) {
+            header.append(String.format(" %22s", operation + " p50/p99 us"));
+        }
+        System.out.println(header);
+        for (String mode : carousels) {
+            for (int size : sizes) {
+                for (int threads : threadCounts) {
+                    for (double defect : defects) {
+                        measure(mode, size, threads, defect, millis / 4);
+                        System.out.println(measure(mode, size, threads, defect, millis));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Run one combination for a while.
+     *
+     * @return a line of the report
+     */
+    private static String measure(String mode, int size, int threads, double defect, long millis)
+            throws InterruptedException {
+        Carousel carousel = Sim.newCarousel(mode, Params.DEFAULT.with("carousel-size", String.valueOf(size)));
+        AtomicInteger nextId = new AtomicInteger();
+        CountDownLatch go = new CountDownLatch(1);
+        List<Worker> workers = new ArrayList<>();
+
+        for (int p = 0; p < threads; p++) {
+            SplittableRandom random = new SplittableRandom(p);
+            workers.add(new Worker(go, 0,
+                    () -> carousel.putVial(new Vial(nextId.incrementAndGet(), random.nextDouble() < defect), 0)));
+            workers.add(new Worker(go, 1, () -> carousel.getVial(size - 1)));
+        }
+        workers.add(new Worker(go, 2, () -> carousel.getVialForInspection(2)));
+        workers.add(new Worker(go, 3, carousel::rotate));
+
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        long start = System.nanoTime();
+        go.countDown();
+        Thread.sleep(millis);
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // each worker kept its own count and histogram, so that the measurement did not contend on them
+        long total = 0;
+        LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+        for (int o = 0; o < OPERATIONS.length; o++) {
+            latencies[o] = new LatencyHistogram();
+        }
+        for (Worker worker : workers) {
+            total += worker.ops;
+            latencies[worker.operation].add(worker.latency);
+        }
+        StringBuilder line = new StringBuilder(String.format("%-8s %5d %7d %6.2f %10.0f", mode, size, threads,
+                defect, total / seconds));
+        for (LatencyHistogram latency : latencies) {
+            line.append(String.format(" %22s", String.format("%.1f/%.1f",
+                    latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(99) / 1000.0)));
+        }
+        return line.toString();
+    }
+
+    /**
+     * A carousel operation that may block.
+     */
+    private interface Operation {
+        void run() throws InterruptedException, OverloadException;
+    }
+
+    /**
+     * A thread that waits for the start signal and then repeats an operation until interrupted, counting it and
+     * recording its latency in nanoseconds. The count and the histogram are read once the thread has been joined.
+     */
+    private static class Worker extends Thread {
+
+        // the index of the operation in OPERATIONS
+        private final int operation;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private long ops = 0;
+
+        private final CountDownLatch go;
+        private final Operation body;
+
+        private Worker(CountDownLatch go, int operation, Operation body) {
+            this.go = go;
+            this.operation = operation;
+            this.body = body;
+        }
+
+        @Override
+        public void run() {
+            try {
+                go.await();
+                while (true) {
+                    long start = System.nanoTime();
+                    body.run();
+                    latency.record(System.nanoTime() - start);
+                    ops++;
+                }
+            } catch (InterruptedException e) {
+                // the measurement is over
+            } catch (OverloadException e) {
+                System.err.println(e);
+            }
+        }
+    }
+
+    /**
+     * @return the comma separated integers in a string
+     */
+    private static int[] parseInts(String values) {
+        String[] parts = values.split(",");
+        int[] ints = new int[parts.length];
+        for (int p = 0; p < parts.length; p++) {
+            ints[p] = Integer.parseInt(parts[p]);
+        }
+        return ints;
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * A carousel drive rotates a carousel as often as possible, but only
  * when there is a vial on the carousel not in the final compartment.
@@ -8,12 +10,40 @@ public class CarouselDrive extends VaccineHandlingThread {
     // the carousel to be handled
     protected Carousel carousel;
 
+    // the rotations this drive has made, those that had to wait for a vial held on the carousel (in compartment #3
+    // or the final compartment), and those that had to wait for the empty carousel to get a vial
+    protected volatile long rotated = 0;
+    protected volatile long rotatedBlocked = 0;
+    protected volatile long rotatedIdle = 0;
+
+    // the same counts, and the time spent rotating vs waiting vs idle, over every carousel with this drive's
+    // carousel's name in the process
+    protected final LongAdder rotations;
+    protected final LongAdder rotationsBlocked;
+    protected final LongAdder rotationsIdle;
+    protected final Metrics.Activity activity;
+
+    // the configuration of the run
+    protected final Params params;
+
     /**
      * Create a new CarouselDrive with a carousel to rotate.
      */
     public CarouselDrive(Carousel carousel) {
-        super();
+        this(carousel, SimulationContext.current());
+    }
+
+    /**
+     * Create a new CarouselDrive with a carousel to rotate in a run.
+     */
+    public CarouselDrive(Carousel carousel, SimulationContext context) {
+        super(context);
         this.carousel = carousel;
+        this.params = context.getParams();
+        this.rotations = Metrics.counter("rotations " + carousel.getName());
+        this.rotationsBlocked = Metrics.counter("rotations blocked " + carousel.getName());
+        this.rotationsIdle = Metrics.counter("rotations idle " + carousel.getName());
+        this.activity = Metrics.activity("CarouselDrive " + carousel.getName());
     }
 
     /**
@@ -24,8 +54,31 @@ public class CarouselDrive extends VaccineHandlingThread {
         while (!isInterrupted()) {
             try {
                 // spend DRIVE_TIME milliseconds rotating the carousel
-                Thread.sleep(Params.DRIVE_TIME);
-                carousel.rotate();
+                long busyStart = System.nanoTime();
+                Thread.sleep(params.driveTime);
+                long waitStart = System.nanoTime();
+                activity.busy(waitStart - busyStart);
+
+                // count the rotations that had to wait for the carousel to be able to rotate: blocked by a vial it
+                // holds, or idle until there is a vial on it at all
+                if (!carousel.tryRotate()) {
+                    boolean idle = carousel.getOccupancy() == 0;
+                    if (idle) {
+                        rotatedIdle++;
+                        rotationsIdle.increment();
+                    } else {
+                        rotatedBlocked++;
+                        rotationsBlocked.increment();
+                    }
+                    carousel.rotate();
+                    if (idle) {
+                        activity.idle(System.nanoTime() - waitStart);
+                    } else {
+                        activity.waiting(System.nanoTime() - waitStart);
+                    }
+                }
+                rotated++;
+                rotations.increment();
             } catch (OverloadException e) {
                 terminate(e);
             } catch (InterruptedException e) {
@@ -35,4 +88,25 @@ public class CarouselDrive extends VaccineHandlingThread {
 
         System.out.println("CarouselDrive terminated");
     }
+
+    /**
+     * @return the number of rotations this drive has made
+     */
+    public long getRotations() {
+        return rotated;
+    }
+
+    /**
+     * @return the number of those rotations that had to wait for a vial held on the carousel
+     */
+    public long getRotationsBlocked() {
+        return rotatedBlocked;
+    }
+
+    /**
+     * @return the number of those rotations that had to wait for the empty carousel to get a vial
+     */
+    public long getRotationsIdle() {
+        return rotatedIdle;
+    }
 }
@@ -0,0 +1,401 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A main carousel without a monitor. Putting and taking vials compare-and-set a single compartment, so threads
+ * working on different compartments never block each other. Rotation is the only operation that needs the whole
+ * carousel: it marks the epoch as rotating, waits for the operations already in progress to finish, moves the head
+ * of the ring buffer, and publishes the next epoch. A thread only parks when the compartment it wants (or, for the
+ * drive, the rotation) is truly unavailable. It parks on the condition it waits for, a compartment becoming empty
+ * or full or the carousel becoming rotatable, and is unparked only by a change to that condition: a put or take at
+ * its compartment, or a rotation, which moves every compartment.
+ */
+public class CasCarousel extends Carousel {
+
+    private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(Vial[].class);
+    private static final VarHandle EPOCH;
+
+    static {
+        try {
+            EPOCH = MethodHandles.lookup().findVarHandle(CasCarousel.class, "epoch", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // twice the number of rotations; odd while a rotation is in progress
+    private volatile long epoch = 0;
+
+    // the number of put/get operations working on the compartments in the current epoch
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // the number of vials on the carousel
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * An attempt at an operation on the carousel, giving its result or null if it cannot be done now.
+     */
+    private interface Attempt<T, E extends Exception> {
+        T get() throws E;
+    }
+
+    /**
+     * The threads parked until a condition of the carousel next changes. A thread joins the queue before its last
+     * attempt, and a change is made before the queue is read, so either the attempt sees the change or the change
+     * sees the thread. A change with nobody waiting only reads the queue.
+     */
+    private static class WaitQueue {
+
+        // the threads parked until the next change
+        private final ConcurrentLinkedQueue<Thread> parked = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Unpark every thread waiting for the condition.
+         */
+        void changed() {
+            for (Thread thread : parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        /**
+         * Make an attempt until it succeeds, parking between attempts until the condition changes.
+         *
+         * @param attempt : the operation to attempt
+         * @param nanos : the longest time to wait, or less than 0 to wait for ever
+         * @param blocker : the object the thread is parked on, for thread dumps
+         * @return the result of the attempt that succeeded, or null if the time ran out first
+         * @throws InterruptedException
+         *            if the thread executing is interrupted.
+         */
+        <T, E extends Exception> T await(Attempt<T, E> attempt, long nanos, Object blocker)
+                throws InterruptedException, E {
+            long deadline = System.nanoTime() + nanos;
+            Thread current = Thread.currentThread();
+            while (true) {
+                T result = attempt.get();
+                if (result != null) {
+                    return result;
+                }
+                parked.add(current);
+                try {
+                    // try again now that a change will unpark this thread, so that a change since the last attempt
+                    // is not missed
+                    result = attempt.get();
+                    if (result != null) {
+                        return result;
+                    }
+                    if (nanos < 0) {
+                        LockSupport.park(blocker);
+                    } else {
+                        long left = deadline - System.nanoTime();
+                        if (left <= 0) {
+                            return null;
+                        }
+                        LockSupport.parkNanos(blocker, left);
+                    }
+                } finally {
+                    parked.remove(current);
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+    }
+
+    // the threads waiting for each compartment to be emptied, to be filled, and for the carousel to be rotatable
+    private final WaitQueue[] emptyAt;
+    private final WaitQueue[] fullAt;
+    private final WaitQueue rotatable = new WaitQueue();
+
+    /**
+     * Create a new, empty carousel with a specified number of compartments
+     */
+    public CasCarousel(int size) {
+        super(size);
+        emptyAt = new WaitQueue[size];
+        fullAt = new WaitQueue[size];
+        for (int i = 0; i < size; i++) {
+            emptyAt[i] = new WaitQueue();
+            fullAt[i] = new WaitQueue();
+        }
+    }
+
+    /**
+     * Create a new, empty carousel with the default number of compartments.
+     */
+    public CasCarousel() {
+        this(Params.DEFAULT.carouselSize);
+    }
+
+    /**
+     * Insert a vial into the carousel.
+     *
+     * @param vial
+     *            the vial to insert into the carousel.
+     * @throws InterruptedException
+     *            if the thread executing is interrupted.
+     */
+    @Override
+    public void putVial(Vial vial, int i) throws InterruptedException {
+        // wait while there is another vial in the way
+        emptyAt[i].await(() -> tryPutVial(vial, i) ? Boolean.TRUE : null, -1, this);
+    }
+
+    /**
+     * Insert a vial into the carousel only if the compartment is empty, without blocking.
+     *
+     * @param vial : the vial to insert into the carousel.
+     * @param i : the compartment at i-1
+     * @return true if the vial was inserted, false if there was another vial in the way
+     */
+    @Override
+    public boolean tryPutVial(Vial vial, int i) {
+        enter();
+        boolean inserted = SLOT.compareAndSet(compartment, slot(i), (Vial) null, vial);
+        if (inserted) {
+            count.incrementAndGet();
+
+            // make a note of the event in output trace while the vial cannot yet be rotated on
+            Trace.record(TraceEvent.INSERTED, vial, 0, i+1, name);
+        }
+        exit();
+
+        if (inserted) {
+            fullAt[i].changed();
+            rotatable.changed();
+        }
+        return inserted;
+    }
+
+    /**
+     * @return the number of vials currently on the carousel
+     */
+    @Override
+    public int getOccupancy() {
+        return count.get();
+    }
+
+    /**
+     * Remove a vial from a compartment of the carousel
+     *
+     * @param i : the compartment at i-1
+     * @return the removed vial
+     * @throws InterruptedException
+     *             if the thread executing is interrupted
+     */
+    @Override
+    public Vial getVial(int i) throws InterruptedException {
+        return take(i, false);
+    }
+
+    /**
+     * Remove a vial from a compartment of the carousel only if there is one, without blocking.
+     *
+     * @param i : the compartment at i-1
+     * @return the removed vial, or null if the compartment is empty
+     */
+    @Override
+    public Vial tryGetVial(int i) {
+        return tryTake(i, false);
+    }
+
+    /**
+     * Get a vial specifically for inspection
+     *
+     * @param i : the vial at compartment i-1
+     * @return : the vial to sent to the inspection subsystem
+     */
+    @Override
+    public Vial getVialForInspection(int i) throws InterruptedException {
+        return take(i, true);
+    }
+
+    /**
+     * Get a vial for inspection, waiting at most some time for one that needs inspecting.
+     *
+     * @param i : the vial at compartment i-1
+     * @param millis : the longest time to wait, more than 0
+     * @return the vial to be sent to the inspection subsystem, or null if there was none in time
+     */
+    @Override
+    public Vial getVialForInspection(int i, long millis) throws InterruptedException {
+        return fullAt[i].await(() -> tryTake(i, true), TimeUnit.MILLISECONDS.toNanos(millis), this);
+    }
+
+    /**
+     * Look ahead of a compartment for a vial on its way there that will need inspecting.
+     *
+     * @param i : the compartment at i-1
+     * @param lookahead : the number of compartments before it to look at
+     * @return true if a defective vial that has not been inspected is in one of them
+     */
+    @Override
+    public boolean isInspectionComing(int i, int lookahead) {
+        enter();
+        try {
+            for (int c = Math.max(0, i - lookahead); c < i; c++) {
+                Vial vial = (Vial) SLOT.getVolatile(compartment, slot(c));
+                if (vial != null && vial.isDefective() && !vial.isInspected()) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Get a vial for inspection only if there is one that needs inspecting, without blocking.
+     *
+     * @param i : the vial at compartment i-1
+     * @return the vial to be sent to the inspection subsystem, or null if there is none
+     */
+    @Override
+    public Vial tryGetVialForInspection(int i) {
+        return tryTake(i, true);
+    }
+
+    /**
+     * Rotate the carousel one position.
+     *
+     * @throws OverloadException
+     *             if a vial is rotated beyond the final compartment.
+     * @throws InterruptedException
+     *             if the thread executing is interrupted.
+     */
+    @Override
+    public void rotate() throws InterruptedException, OverloadException {
+        rotatable.await(() -> tryRotate() ? Boolean.TRUE : null, -1, this);
+    }
+
+    /**
+     * Rotate the carousel one position only if it can rotate now, without blocking.
+     *
+     * @return true if the carousel rotated, otherwise false
+     * @throws OverloadException
+     *             if a vial is rotated beyond the final compartment.
+     */
+    @Override
+    public boolean tryRotate() throws OverloadException {
+        long e = epoch;
+        if ((e & 1) != 0 || !EPOCH.compareAndSet(this, e, e + 1)) {
+            // another thread is rotating the carousel
+            return false;
+        }
+
+        // wait for the operations that started in this epoch to finish
+        while (inFlight.get() != 0) {
+            Thread.onSpinWait();
+        }
+
+        // the carousel is ours until the epoch is published
+        Vial scanned = size > 2 ? compartment[slot(2)] : null;
+        boolean mayRotate = count.get() != 0 && // do NOT rotate if the carousel is empty
+                compartment[slot(size - 1)] == null && // do NOT rotate if the final compartment is full
+                !(scanned != null && scanned.isDefective()); // do NOT rotate if c3 is DEFECTIVE
+        if (!mayRotate) {
+            epoch = e;
+            return false;
+        }
+        try {
+            for (int c = size - 2; c >= 0; c--) {
+                if (compartment[slot(c)] != null) {
+                    Trace.record(TraceEvent.ROTATED, compartment[slot(c)], c+1, c+2, name);
+                }
+            }
+            head = (head == 0 ? size : head) - 1;
+        } finally {
+            epoch = e + 2;
+        }
+
+        // every compartment has a different vial in it now: wake the threads it is now ready for
+        for (int c = 0; c < size; c++) {
+            if (SLOT.getVolatile(compartment, slot(c)) == null) {
+                emptyAt[c].changed();
+            } else {
+                fullAt[c].changed();
+            }
+        }
+        rotatable.changed();
+        return true;
+    }
+
+    /**
+     * Check whether the carousel is currently empty.
+     * @return true if the carousel is currently empty, otherwise false
+     */
+    @Override
+    protected boolean isEmpty() {
+        return count.get() == 0;
+    }
+
+    /**
+     * Take the vial out of a compartment, waiting until there is one (and, for inspection, until it is defective
+     * and not yet inspected).
+     */
+    private Vial take(int i, boolean forInspection) throws InterruptedException {
+        // wait while there is no vial to take yet
+        return fullAt[i].await(() -> tryTake(i, forInspection), -1, this);
+    }
+
+    /**
+     * Take the vial out of a compartment if there is one (and, for inspection, if it is defective and not yet
+     * inspected), without blocking.
+     */
+    private Vial tryTake(int i, boolean forInspection) {
+        enter();
+        int s = slot(i);
+        Vial vial = (Vial) SLOT.getVolatile(compartment, s);
+        boolean taken = vial != null &&
+                (!forInspection || (vial.isDefective() && !vial.isInspected())) &&
+                SLOT.compareAndSet(compartment, s, vial, (Vial) null);
+        if (taken) {
+            count.decrementAndGet();
+        }
+        exit();
+
+        if (!taken) {
+            return null;
+        }
+
+        // print the removal message for the last
+        if (i == size - 1) {
+            removeMessage(vial);
+        }
+        emptyAt[i].changed();
+        rotatable.changed();
+        return vial;
+    }
+
+    /**
+     * Register an operation in the current epoch, waiting out a rotation in progress. After this returns the head
+     * of the ring buffer cannot move until exit() is called.
+     */
+    private void enter() {
+        while (true) {
+            long e = epoch;
+            if ((e & 1) == 0) {
+                inFlight.incrementAndGet();
+                if (epoch == e) {
+                    return;
+                }
+                inFlight.decrementAndGet();
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Finish an operation registered with enter().
+     */
+    private void exit() {
+        inFlight.decrementAndGet();
+    }
+}
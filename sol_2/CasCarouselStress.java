@@ -0,0 +1,132 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A correctness check for CasCarousel. Many producers put vials into compartment 0 and many consumers take them
+ * from the final compartment as fast as they can, while a drive rotates the carousel and a shuttle takes defective
+ * vials from compartment #3. At the end every vial produced must have been taken off exactly once. The check waits
+ * for as long as vials keep being taken off, however long the workload takes on a loaded machine; only if none is
+ * taken off for a while does it stop and report that it timed out, separately from any vial lost or duplicated.
+ */
+public class CasCarouselStress {
+
+    /**
+     * Run the check.
+     *
+     * @param args : optionally the number of producers, the number of consumers, the vials per producer and the
+     *             seconds without any vial taken off after which the check times out (default 10)
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int producers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int consumers = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int vialsPerProducer = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int expected = producers * vialsPerProducer;
+        long stallNanos = TimeUnit.SECONDS.toNanos(args.length > 3 ? Long.parseLong(args[3]) : 10);
+
+        Carousel carousel = new CasCarousel();
+        Set<Vial> produced = ConcurrentHashMap.newKeySet();
+        Set<Vial> removed = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        AtomicInteger foreign = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int p = 0; p < producers; p++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int n = 0; n < vialsPerProducer; n++) {
+                        Vial vial = Vial.getInstance();
+                        produced.add(vial);
+                        carousel.putVial(vial, 0);
+                    }
+                } catch (InterruptedException e) {
+                    // stopped
+                }
+            }, "Producer-" + p));
+        }
+
+        // consumers at the final compartment, plus the shuttle at compartment #3
+        for (int c = 0; c <= consumers; c++) {
+            boolean shuttle = c == consumers;
+            threads.add(new Thread(() -> {
+                try {
+                    while (true) {
+                        Vial vial = shuttle ? carousel.getVialForInspection(2) : carousel.getVial(carousel.getSize() - 1);
+                        if (!produced.contains(vial)) {
+                            foreign.incrementAndGet();
+                        }
+                        if (!removed.add(vial)) {
+                            duplicates.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // stopped
+                }
+            }, shuttle ? "Shuttle" : "Consumer-" + c));
+        }
+
+        threads.add(new Thread(() -> {
+            try {
+                while (true) {
+                    carousel.rotate();
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            } catch (OverloadException e) {
+                System.err.println(e);
+            }
+        }, "CarouselDrive"));
+
+        // the carousel traces every movement, which is not what is being checked here
+        Trace.setMode(Trace.Mode.OFF);
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        // wait for every vial, for as long as vials keep coming off
+        int seen = 0;
+        long lastProgress = start;
+        while (removed.size() < expected && System.nanoTime() - lastProgress < stallNanos) {
+            Thread.sleep(10);
+            if (removed.size() > seen) {
+                seen = removed.size();
+                lastProgress = System.nanoTime();
+            }
+        }
+        boolean timedOut = removed.size() < expected;
+        long elapsed = System.nanoTime() - start;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        System.out.println(producers + " producers, " + consumers + " consumers, " + expected + " vials in " +
+                TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms");
+        if (timedOut) {
+            // the vials not taken off may just not have got there yet; only duplicates and unknowns are failures
+            System.out.println("taken off: " + removed.size() + " of " + expected + ", duplicated: " +
+                    duplicates.get() + ", unknown: " + foreign.get() + ", left on carousel: " + carousel);
+            if (duplicates.get() != 0 || foreign.get() != 0) {
+                System.out.println("FAILED");
+                System.exit(1);
+            }
+            System.out.println("TIMED OUT: no vial taken off for " + TimeUnit.NANOSECONDS.toSeconds(stallNanos) +
+                    " s");
+            System.exit(2);
+        }
+        int lost = expected - removed.size();
+        System.out.println("lost: " + lost + ", duplicated: " + duplicates.get() + ", unknown: " + foreign.get() +
+                ", left on carousel: " + carousel);
+        if (lost != 0 || duplicates.get() != 0 || foreign.get() != 0) {
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+}
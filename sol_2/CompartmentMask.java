@@ -0,0 +1,120 @@
+/**
+ * A set of compartment numbers kept as bits, bit i standing for the compartment at i. A carousel of up to 64
+ * compartments uses a single long; a larger one uses an array of long words. Rotating the carousel is a shift of
+ * the mask by one bit.
+ */
+public class CompartmentMask {
+
+    // the number of compartments covered by the mask
+    protected final int size;
+
+    // the bits when size <= 64
+    protected long bits;
+
+    // the bits when size > 64, otherwise null
+    protected final long[] words;
+
+    // the number of bits that are set
+    protected int count;
+
+    /**
+     * Create a new, empty mask covering a number of compartments.
+     */
+    public CompartmentMask(int size) {
+        this.size = size;
+        this.bits = 0L;
+        this.words = size > 64 ? new long[(size + 63) / 64] : null;
+        this.count = 0;
+    }
+
+    /**
+     * @param i : the compartment at i-1
+     * @return true if the bit for the compartment is set
+     */
+    public boolean get(int i) {
+        if (words == null) {
+            return (bits & (1L << i)) != 0;
+        }
+        return (words[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Set or clear the bit for a compartment.
+     *
+     * @param i : the compartment at i-1
+     * @param value : true to set the bit, false to clear it
+     */
+    public void set(int i, boolean value) {
+        if (get(i) == value) {
+            return;
+        }
+        if (words == null) {
+            bits ^= 1L << i;
+        } else {
+            words[i >>> 6] ^= 1L << i;
+        }
+        count += value ? 1 : -1;
+    }
+
+    /**
+     * @return true if no bit is set
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return the number of bits set
+     */
+    public int cardinality() {
+        return count;
+    }
+
+    /**
+     * Move every bit up one compartment, as the carousel does when it rotates. The bit for the final compartment
+     * is dropped and compartment 0 becomes clear.
+     */
+    public void shift() {
+        if (get(size - 1)) {
+            count--;
+        }
+        if (words == null) {
+            bits = (bits << 1) & (size == 64 ? -1L : (1L << size) - 1);
+            return;
+        }
+        for (int w = words.length - 1; w > 0; w--) {
+            words[w] = (words[w] << 1) | (words[w - 1] >>> 63);
+        }
+        words[0] <<= 1;
+        int spare = words.length * 64 - size;
+        words[words.length - 1] &= -1L >>> spare;
+    }
+
+    /**
+     * Find the highest set bit at or below a compartment, to walk the set compartments from the end of the
+     * carousel back to the start.
+     *
+     * @param i : the compartment to start looking from
+     * @return the highest set compartment at or below i, or -1 if there is none
+     */
+    public int previousSetBit(int i) {
+        if (i < 0) {
+            return -1;
+        }
+        if (words == null) {
+            long below = bits & (-1L >>> (63 - i));
+            return 63 - Long.numberOfLeadingZeros(below);
+        }
+        int w = i >>> 6;
+        long word = words[w] & (-1L >>> (63 - (i & 63)));
+        while (true) {
+            if (word != 0) {
+                return w * 64 + 63 - Long.numberOfLeadingZeros(word);
+            }
+            if (w-- == 0) {
+                return -1;
+            }
+            word = words[w];
+        }
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Compares running every component of many fill/finish lines on platform threads with running them on virtual
+ * threads. For 10, 100 and 1000 lines it reports how long it takes to start all the components, and how much heap
+ * and resident memory the process uses once they are running, next to what it used before they were created.
+ * Each row runs in a fresh JVM, so that it does not see the heap and threads left over from the rows before it.
+ */
+public class ComponentThreadBenchmark {
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args : optionally the line counts to try (default 10 100 1000); --row=MODE:LINES runs a single row
+     *             in this JVM, as the benchmark does in each JVM it launches
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 1 && args[0].startsWith("--row=")) {
+            String[] row = args[0].substring("--row=".length()).split(":");
+            try {
+                run(row[0], ComponentThreads.forMode(row[0]), Integer.parseInt(row[1]));
+            } catch (UnsupportedOperationException e) {
+                System.out.println(row[0] + ": " + e.getMessage());
+            }
+            System.exit(0);
+        }
+
+        int[] lineCounts = { 10, 100, 1000 };
+        if (args.length > 0) {
+            lineCounts = new int[args.length];
+            for (int a = 0; a < args.length; a++) {
+                lineCounts[a] = Integer.parseInt(args[a]);
+            }
+        }
+
+        String java = ProcessHandle.current().info().command().orElse("java");
+        String classPath = System.getProperty("java.class.path");
+        System.out.println("mode      lines  components  startup ms  heap MB  rss MB  base heap MB  base rss MB");
+        for (String mode : new String[] { "platform", "virtual" }) {
+            for (int lines : lineCounts) {
+                Process row = new ProcessBuilder(java, "-cp", classPath, ComponentThreadBenchmark.class.getName(),
+                        "--row=" + mode + ":" + lines).inheritIO().start();
+                row.waitFor();
+            }
+        }
+    }
+
+    /**
+     * Start the components of some lines, measure, then stop them again.
+     */
+    private static void run(String mode, ThreadFactory factory, int lines) throws InterruptedException {
+        // the components trace every movement, which is not what is being measured here
+        Trace.setMode(Trace.Mode.OFF);
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        // what the JVM uses before any component exists
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        long baseHeap = runtime.totalMemory() - runtime.freeMemory();
+        long baseRss = residentSetSize();
+
+        List<VaccineHandlingThread> components = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int l = 0; l < lines; l++) {
+            components.addAll(line());
+        }
+        for (VaccineHandlingThread component : components) {
+            component.start(factory);
+        }
+        long startup = System.nanoTime() - start;
+
+        // let every component reach its first sleep or wait
+        Thread.sleep(2000);
+        System.gc();
+        long heap = runtime.totalMemory() - runtime.freeMemory();
+        long rss = residentSetSize();
+
+        for (VaccineHandlingThread component : components) {
+            component.interrupt();
+        }
+        for (VaccineHandlingThread component : components) {
+            component.join(5000);
+        }
+        System.setOut(out);
+
+        System.out.println(String.format("%-8s %6d %11d %11.1f %8.1f %7s %13.1f %12s",
+                mode, lines, components.size(), startup / 1e6, heap / 1048576.0,
+                rss < 0 ? "n/a" : String.format("%.1f", rss / 1048576.0), baseHeap / 1048576.0,
+                baseRss < 0 ? "n/a" : String.format("%.1f", baseRss / 1048576.0)));
+    }
+
+    /**
+     * @return the components of one line, wired as in Sim
+     */
+    private static List<VaccineHandlingThread> line() {
+        Carousel mainCarousel = new Carousel();
+        Carousel destroyerCarousel = new DestroyerCarousel();
+        InspectionBay inspectionBay = new InspectionBay(destroyerCarousel);
+        return List.of(
+                new Consumer(mainCarousel),
+                new Producer(mainCarousel),
+                new Shuttle(mainCarousel, inspectionBay),
+                inspectionBay,
+                new Consumer(destroyerCarousel),
+                new CarouselDrive(destroyerCarousel),
+                new CarouselDrive(mainCarousel));
+    }
+
+    /**
+     * @return the resident memory of this process in bytes, or -1 where /proc is not available
+     */
+    private static long residentSetSize() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // not Linux
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,45 @@
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Where the components of the system get their threads from: dedicated platform threads, or virtual threads on
+ * JVMs that have them.
+ */
+public class ComponentThreads {
+
+    /**
+     * @return a factory for ordinary platform threads
+     */
+    public static ThreadFactory platform() {
+        return Thread::new;
+    }
+
+    /**
+     * @return a factory for virtual threads
+     * @throws UnsupportedOperationException
+     *             if this JVM does not have virtual threads
+     */
+    public static ThreadFactory virtual() {
+        // looked up reflectively so that the system still builds and runs on JVMs without virtual threads
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new UnsupportedOperationException("virtual threads are not available on this JVM", e);
+        }
+    }
+
+    /**
+     * @param mode : "platform" or "virtual"
+     * @return the factory for the mode
+     */
+    public static ThreadFactory forMode(String mode) {
+        switch (mode) {
+            case "platform":
+                return platform();
+            case "virtual":
+                return virtual();
+            default:
+                throw new IllegalArgumentException("unknown thread mode: " + mode);
+        }
+    }
+}
@@ -1,4 +1,6 @@
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A consumer continually, at random intervals, tries to take vials 
@@ -10,12 +12,39 @@ public class Consumer extends VaccineHandlingThread {
     // the carousel from which the consumer takes vials
     protected Carousel carousel;
 
+    // decides how long to wait between vials
+    protected SplittableRandom random;
+
+    // the number of vials this consumer has taken
+    protected volatile long consumed = 0;
+
+    // the vials taken from this consumer's carousel, and the time spent handling vials vs waiting for them
+    protected final LongAdder taken;
+    protected final Metrics.Activity activity;
+
+    // the configuration of the run
+    protected final Params params;
+
+    // counted down for every vial taken, if set; the run ends when it reaches zero
+    protected volatile CountDownLatch takenLatch = null;
+
     /**
      * Create a new Consumer that consumes from a carousel
      */
     public Consumer(Carousel carousel) {
-        super();
+        this(carousel, SimulationContext.current());
+    }
+
+    /**
+     * Create a new Consumer that consumes from a carousel in a run, taking its randomness from a stream of its own.
+     */
+    public Consumer(Carousel carousel, SimulationContext context) {
+        super(context);
         this.carousel = carousel;
+        this.random = context.nextRandom();
+        this.params = context.getParams();
+        this.taken = Metrics.counter("vials taken from " + carousel.getName());
+        this.activity = Metrics.activity("Consumer " + carousel.getName());
     }
 
     /**
@@ -24,18 +53,48 @@ public class Consumer extends VaccineHandlingThread {
     public void run() {
         while (!isInterrupted()) {
             try {
+                long waitStart = System.nanoTime();
                 carousel.getVial(carousel.getSize() - 1);
+                long busyStart = System.nanoTime();
+                activity.waiting(busyStart - waitStart);
+                consumed++;
+                taken.increment();
+                context.vialLeft();
+                CountDownLatch latch = takenLatch;
+                if (latch != null) {
+                    latch.countDown();
+                    if (latch.getCount() == 0) {
+                        context.end();
+                    }
+                }
 
                 // let some time pass ...
-                Random random = new Random();
-                int sleepTime = Params.CONSUMER_MIN_SLEEP + 
-                		random.nextInt(Params.CONSUMER_MAX_SLEEP - 
-                				Params.CONSUMER_MIN_SLEEP);
+                int sleepTime = params.consumerMinSleep + 
+                		random.nextInt(params.consumerMaxSleep - 
+                				params.consumerMinSleep);
                 sleep(sleepTime);
+                activity.busy(System.nanoTime() - busyStart);
             } catch (InterruptedException e) {
                 this.interrupt();
             }
         }
         System.out.println("Consumer terminated");
     }
+
+    /**
+     * @return the number of vials this consumer has taken off its carousel
+     */
+    public long getConsumed() {
+        return consumed;
+    }
+
+    /**
+     * Count down a latch for every vial taken from now on, and end the run when it reaches zero, e.g. to stop
+     * after a number of vials have left the plant.
+     *
+     * @param latch : the latch to count down
+     */
+    public void setTakenLatch(CountDownLatch latch) {
+        takenLatch = latch;
+    }
 }
@@ -1,3 +1,5 @@
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * A subclass of the carousel, the destroyer is a specialised type of carousel for the defective vial recycling
  * subsystem. It takes defective vials that have been inspected and tagged by the inspection bay. It gives defective
@@ -5,51 +7,27 @@
  */
 public class DestroyerCarousel extends Carousel {
 
+    // the vials taken off for destruction
+    protected final LongAdder destructions = Metrics.counter("destructions");
+
     /**
      * Create a new, empty destroyer carousel, initialised to be empty with default size of 2 compartments
      */
     public DestroyerCarousel() {
         super(2);
+        name = "destroyer carousel";
     }
 
     /**
-     * Rotate the carousel one position.
-     *
-     * @throws OverloadException
-     *             if a vial is rotated beyond the final compartment.
-     * @throws InterruptedException
-     *             if the thread executing is interrupted.
+     * Check whether the destroyer carousel may rotate.
+     * @return true if the carousel may rotate, otherwise false
      */
     @Override
-    public synchronized void rotate()
-            throws InterruptedException, OverloadException {
+    protected boolean canRotate() {
         // if there is a vial in the second compartment, or the carousel is empty,
         // do not move the carousel
-        while (isEmpty() || // do NOT rotate if I'm empty
-                compartment[compartment.length-1] != null ) { // do NOT rotate if my last compartment contains a vial
-            wait();
-        }
-
-        // double check that a vial cannot be rotated beyond the final compartment
-        if (compartment[compartment.length-1] != null) {
-            String message = "vial rotated beyond final compartment";
-            throw new OverloadException(message);
-        }
-
-        // move the elements along, making position 0 null
-        for (int i = compartment.length-1; i > 0; i--) {
-            if (this.compartment[i-1] != null) {
-                System.out.println(
-                        indentation +
-                                this.compartment[i-1] +
-                                " [ c" + (i) + " -> c" + (i+1) + " ] destroyer carousel");
-            }
-            compartment[i] = compartment[i-1];
-        }
-        compartment[0] = null;
-
-        // notify any waiting threads that the destroyer carousel has changed
-        notifyAll();
+        return !(isEmpty() || // do NOT rotate if I'm empty
+                occupied.get(size-1)); // do NOT rotate if my last compartment contains a vial
     }
 
     /**
@@ -58,6 +36,7 @@ public class DestroyerCarousel extends Carousel {
      */
     @Override
     protected void removeMessage(Vial vial) {
-        System.out.println(indentation + indentation + vial + " removed (for destruction)");
+        Trace.record(TraceEvent.DESTROYED, vial, size, 0, name);
+        destructions.increment();
     }
 }
@@ -0,0 +1,393 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * A simulator for the vaccine fill/finish system that runs in simulated time. The carousels, inspection bay and
+ * destroyer carousel are the same as in Sim, but the producer, consumers, drives, shuttle and inspection bay are
+ * stepped by an EventEngine instead of sleeping in threads, so days of plant operation take seconds. The output
+ * trace is the same as Sim's. With the same seed, two runs give exactly the same trace.
+ */
+public class DiscreteEventSim {
+
+    // the clock and event queue of this run
+    protected final EventEngine engine = new EventEngine();
+
+    // the IDs, randomness and latencies of this run, in simulated time
+    protected final SimulationContext context;
+
+    // the carousels, and the processes that count what they have done
+    protected final Carousel mainCarousel;
+    protected final DriveProcess mainDriver;
+    protected final ConsumerProcess distributor;
+    protected final ConsumerProcess destroyer;
+    protected final ShuttleProcess shuttle;
+
+    /**
+     * Assemble the plant and schedule the first step of every component.
+     *
+     * @param random : where the components' random choices come from
+     * @param params : the configuration of the run
+     */
+    public DiscreteEventSim(RandomStreams random, Params params) {
+        this(random, params, "monitor", InspectionPool.Policy.ROUND_ROBIN);
+    }
+
+    /**
+     * Assemble the plant around a given main carousel, and schedule the first step of every component.
+     *
+     * @param random : where the components' random choices come from
+     * @param params : the configuration of the run
+     * @param carouselMode : the main carousel implementation, as for Sim
+     * @param bayPolicy : how the shuttle chooses a free inspection bay
+     */
+    public DiscreteEventSim(RandomStreams random, Params params, String carouselMode,
+            InspectionPool.Policy bayPolicy) {
+        context = new SimulationContext(random, params, engine::now);
+
+        // Components of the main carousel subsystem
+        mainCarousel = Sim.newCarousel(carouselMode, params);
+        mainDriver = new DriveProcess(mainCarousel, params);
+        ProducerProcess producer = new ProducerProcess(mainCarousel, context);
+        distributor = new ConsumerProcess(mainCarousel, context);
+
+        // Components of the destroyer carousel subsystem
+        Carousel destroyerCarousel = new DestroyerCarousel();
+        destroyer = new ConsumerProcess(destroyerCarousel, context);
+        DriveProcess destroyerDriver = new DriveProcess(destroyerCarousel, params);
+
+        // Components of the shuttle subsystem
+        InspectionPool inspectionBays = new InspectionPool(params.inspectionBays, bayPolicy, destroyerCarousel,
+                context);
+        shuttle = new ShuttleProcess(mainCarousel, inspectionBays, params, engine);
+
+        // start the components in the same order as Sim starts its threads; the drives sleep first
+        engine.schedule(distributor, 0);
+        engine.schedule(producer, 0);
+        engine.schedule(shuttle, 0);
+        for (InspectionBay inspectionBay : inspectionBays.getBays()) {
+            engine.schedule(new InspectionProcess(inspectionBay, params), 0);
+        }
+        engine.schedule(destroyer, 0);
+        engine.schedule(destroyerDriver, params.driveTime);
+        engine.schedule(mainDriver, params.driveTime);
+    }
+
+    /**
+     * @return the simulated time in milliseconds
+     */
+    public long now() {
+        return engine.now();
+    }
+
+    /**
+     * @return the number of vials taken off the main carousel
+     */
+    public long getDistributed() {
+        return distributor.consumed;
+    }
+
+    /**
+     * @return the number of vials taken off the destroyer carousel
+     */
+    public long getDestroyed() {
+        return destroyer.consumed;
+    }
+
+    /**
+     * @return the number of rotations of the main carousel
+     */
+    public long getRotations() {
+        return mainDriver.rotations;
+    }
+
+    /**
+     * @return the number of rotations of the main carousel that had to wait for a vial held on it
+     */
+    public long getRotationsBlocked() {
+        return mainDriver.rotationsBlocked;
+    }
+
+    /**
+     * @return the number of rotations of the main carousel that had to wait for the empty carousel to get a vial
+     */
+    public long getRotationsIdle() {
+        return mainDriver.rotationsIdle;
+    }
+
+    /**
+     * @return the simulated time in milliseconds the shuttle has spent travelling
+     */
+    public long getShuttleBusy() {
+        return shuttle.busy;
+    }
+
+    /**
+     * @return the number of defective vials the shuttle has picked up
+     */
+    public long getShuttleCarried() {
+        return shuttle.carried;
+    }
+
+    /**
+     * @return the latencies of the run so far, in simulated milliseconds
+     */
+    public LatencyStats getStats() {
+        return context.getStats();
+    }
+
+    /**
+     * Run the simulation until a simulated time, or until a number of vials have left the plant. The run's context
+     * is bound to this thread while it runs.
+     *
+     * @param until : the simulated time in milliseconds to stop at
+     * @param vials : the number of vials distributed or destroyed to stop at, or 0 for no limit
+     * @throws OverloadException
+     *             if a vial is rotated beyond the final compartment.
+     */
+    public void run(long until, long vials) throws OverloadException {
+        context.bind();
+        try {
+            engine.run(until, () -> vials > 0 && getDistributed() + getDestroyed() >= vials);
+        } finally {
+            SimulationContext.unbind();
+        }
+    }
+
+    /**
+     * The main method to run the simulator.
+     *
+     * @param args : optionally --hours=H of simulated plant operation (default 8), and --carousel=monitor|bypass
+     *             (default monitor), and --bay-policy=round-robin|least-busy (default round-robin), and
+     *             --trace=async|sync|off
+     *             (default async), and --event-log=FILE to log every event to a binary log that
+     *             EventLogReader can print, and --seed=N to repeat an earlier run, and --NAME=VALUE for any
+     *             of Params.NAMES
+     */
+    public static void main(String[] args) {
+        long hours = 8;
+        String carouselMode = "monitor";
+        InspectionPool.Policy bayPolicy = InspectionPool.Policy.ROUND_ROBIN;
+        RandomStreams random = new RandomStreams();
+        for (String arg : args) {
+            if (arg.startsWith("--hours=")) {
+                hours = Long.parseLong(arg.substring("--hours=".length()));
+            } else if (arg.startsWith("--carousel=")) {
+                carouselMode = arg.substring("--carousel=".length());
+            } else if (arg.startsWith("--bay-policy=")) {
+                bayPolicy = InspectionPool.Policy.valueOf(
+                        arg.substring("--bay-policy=".length()).toUpperCase().replace('-', '_'));
+            } else if (arg.startsWith("--seed=")) {
+                random = new RandomStreams(Long.parseLong(arg.substring("--seed=".length())));
+            } else if (arg.startsWith("--trace=")) {
+                Trace.setMode(Trace.Mode.valueOf(arg.substring("--trace=".length()).toUpperCase()));
+            } else if (arg.startsWith("--event-log=")) {
+                Trace.openEventLog(arg.substring("--event-log=".length()));
+            }
+        }
+
+        DiscreteEventSim sim = new DiscreteEventSim(random, Params.DEFAULT.withArgs(args), carouselMode, bayPolicy);
+
+        long start = System.currentTimeMillis();
+        Exception terminateException = null;
+        try {
+            sim.run(hours * 60 * 60 * 1000, 0);
+        } catch (OverloadException e) {
+            terminateException = e;
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        Trace.closeEventLog();
+        Trace.flush();
+        System.out.println("Sim terminating");
+        System.out.println(terminateException);
+        System.out.println("seed: " + random.getSeed());
+        System.out.print(sim.getStats().report());
+        System.out.println("simulated " + sim.now() + " ms in " + elapsed + " ms: distributed " +
+                sim.getDistributed() + ", destroyed " + sim.getDestroyed());
+    }
+
+    /**
+     * Puts a new vial on compartment 0 of a carousel, then sleeps for a random time, as Producer does.
+     */
+    static class ProducerProcess implements SimProcess {
+        private final Carousel carousel;
+        private final SplittableRandom random;
+        private final VialFactory vials;
+        private final Params params;
+        private Vial vial = null;
+
+        ProducerProcess(Carousel carousel, SimulationContext context) {
+            this.carousel = carousel;
+            this.random = context.nextRandom();
+            this.params = context.getParams();
+            this.vials = new VialFactory(context, random.split());
+        }
+
+        public long step() {
+            if (vial == null) {
+                vial = vials.newVial();
+            }
+            if (!carousel.tryPutVial(vial, 0)) {
+                return BLOCKED;
+            }
+            vial = null;
+            return random.nextInt(params.producerMaxSleep);
+        }
+    }
+
+    /**
+     * Takes a vial from the final compartment of a carousel, then sleeps for a random time, as Consumer does.
+     */
+    static class ConsumerProcess implements SimProcess {
+        private final Carousel carousel;
+        private final SplittableRandom random;
+        private final Params params;
+        long consumed = 0;
+
+        ConsumerProcess(Carousel carousel, SimulationContext context) {
+            this.carousel = carousel;
+            this.random = context.nextRandom();
+            this.params = context.getParams();
+        }
+
+        public long step() {
+            if (carousel.tryGetVial(carousel.getSize() - 1) == null) {
+                return BLOCKED;
+            }
+            consumed++;
+            return params.consumerMinSleep +
+                    random.nextInt(params.consumerMaxSleep - params.consumerMinSleep);
+        }
+    }
+
+    /**
+     * Rotates a carousel, then spends DRIVE_TIME before the next rotation, as CarouselDrive does.
+     */
+    static class DriveProcess implements SimProcess {
+        private final Carousel carousel;
+        private final Params params;
+        long rotations = 0;
+        long rotationsBlocked = 0;
+        long rotationsIdle = 0;
+
+        // set while the drive is waiting for the carousel to be able to rotate
+        private boolean waiting = false;
+
+        DriveProcess(Carousel carousel, Params params) {
+            this.carousel = carousel;
+            this.params = params;
+        }
+
+        public long step() throws OverloadException {
+            if (!carousel.tryRotate()) {
+                if (!waiting) {
+                    waiting = true;
+                    if (carousel.getOccupancy() == 0) {
+                        rotationsIdle++;
+                    } else {
+                        rotationsBlocked++;
+                    }
+                }
+                return BLOCKED;
+            }
+            waiting = false;
+            rotations++;
+            return params.driveTime;
+        }
+    }
+
+    /**
+     * Moves defective vials from compartment #3 of the carousel to the inspection bay, as Shuttle does.
+     */
+    static class ShuttleProcess implements SimProcess {
+        private final Carousel carousel;
+        private final InspectionPool inspectionBays;
+        private final Params params;
+        private final EventEngine engine;
+        private final List<Vial> load = new ArrayList<>();
+        private boolean atCarousel = true;
+        private long holdUntil = 0;
+        long busy = 0;
+        long carried = 0;
+
+        ShuttleProcess(Carousel carousel, InspectionPool inspectionBays, Params params, EventEngine engine) {
+            this.carousel = carousel;
+            this.inspectionBays = inspectionBays;
+            this.params = params;
+            this.engine = engine;
+        }
+
+        public long step() {
+            if (atCarousel) {
+                // at the carousel: get defective vials from compartment 3 until full, the hold time is up or,
+                // looking ahead, none is on its way, then take them to the inspection bays
+                Vial vial;
+                while (load.size() < params.shuttleCapacity &&
+                        (vial = carousel.tryGetVialForInspection(2)) != null) {
+                    if (load.isEmpty() && params.shuttleMaxHold > 0) {
+                        holdUntil = engine.now() + params.shuttleMaxHold;
+                        engine.wake(params.shuttleMaxHold);
+                    }
+                    load.add(vial);
+                    carried++;
+                    Trace.record(TraceEvent.SHUTTLE_PICKUP, vial, 3, 0, carousel.getName());
+                }
+                if (load.isEmpty() || load.size() < params.shuttleCapacity && engine.now() < holdUntil &&
+                        (params.shuttleLookahead == 0 || carousel.isInspectionComing(2, params.shuttleLookahead))) {
+                    return BLOCKED;
+                }
+                atCarousel = false;
+                busy += params.shuttleTime;
+                return params.shuttleTime;
+            }
+
+            // at the inspection bays: put each defective vial in a free one, then head back to the carousel
+            while (!load.isEmpty()) {
+                if (!inspectionBays.tryPutVial(load.get(0))) {
+                    return BLOCKED;
+                }
+                Trace.record(TraceEvent.SHUTTLE_DELIVERY, load.remove(0));
+            }
+            atCarousel = true;
+            busy += params.shuttleTime;
+            return params.shuttleTime;
+        }
+    }
+
+    /**
+     * Waits for a vial to arrive, spends INSPECT_TIME inspecting and tagging it, then sends it to the destroyer
+     * carousel, as InspectionBay's run loop does.
+     */
+    static class InspectionProcess implements SimProcess {
+        private final InspectionBay inspectionBay;
+        private final Params params;
+        private boolean inspecting = false;
+
+        InspectionProcess(InspectionBay inspectionBay, Params params) {
+            this.inspectionBay = inspectionBay;
+            this.params = params;
+        }
+
+        public long step() throws OverloadException {
+            try {
+                if (inspecting) {
+                    inspectionBay.tagAndInspectVial();
+                    inspecting = false;
+                }
+                if (inspectionBay.isVialReadyForDestruction() || inspectionBay.isHandingOff()) {
+                    return inspectionBay.trySendVialToDestroyer() ? 0 : BLOCKED;
+                }
+            } catch (InterruptedException e) {
+                // the bay's methods never wait, so this cannot happen
+                throw new IllegalStateException(e);
+            }
+            if (inspectionBay.isEmpty()) {
+                return BLOCKED;
+            }
+            inspectionBay.startInspection();
+            inspecting = true;
+            return params.inspectTime;
+        }
+    }
+}
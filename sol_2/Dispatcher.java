@@ -0,0 +1,120 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A producer for a multi-lane plant. It continually creates vials at random intervals and routes each to the
+ * compartment 0 of one of the lanes' carousels.
+ */
+public class Dispatcher extends VaccineHandlingThread {
+
+    /**
+     * How a lane is chosen for a new vial. If no lane can take the vial straight away, the dispatcher waits on
+     * the least loaded lane.
+     */
+    public enum Policy {
+        // the first lane, in order, whose compartment 0 is empty
+        FIRST_FREE,
+        // the lane with the fewest vials on its carousel, or the first free lane if its compartment 0 is taken
+        LEAST_LOADED
+    }
+
+    // the lanes fed by this dispatcher
+    protected Lane[] lanes;
+    protected Policy policy;
+
+    // the maximum time between two new vials
+    protected int maxSleep;
+
+    // the number of vials sent to each lane
+    protected final long[] dispatched;
+
+    // where the dispatcher's vials come from
+    protected VialFactory vials;
+
+    // decides how long to wait between vials
+    protected SplittableRandom random;
+
+    // the number of vials produced, and the time spent producing vs waiting for a lane
+    protected final LongAdder produced = Metrics.counter("vials produced");
+    protected final Metrics.Activity activity;
+
+    /**
+     * Create a new dispatcher feeding some lanes in a run.
+     */
+    public Dispatcher(Lane[] lanes, Policy policy, int maxSleep, SimulationContext context) {
+        super(context);
+        this.random = context.nextRandom();
+        this.lanes = lanes;
+        this.policy = policy;
+        this.maxSleep = maxSleep;
+        this.dispatched = new long[lanes.length];
+        this.vials = new VialFactory(context, random.split());
+        this.activity = Metrics.activity("Dispatcher");
+    }
+
+    /**
+     * Continually create vials and place them on a lane at random intervals.
+     */
+    public void run() {
+        while (!isInterrupted()) {
+            try {
+                long waitStart = System.nanoTime();
+                dispatch(vials.newVial());
+                context.vialEntered();
+                long busyStart = System.nanoTime();
+                activity.waiting(busyStart - waitStart);
+                produced.increment();
+
+                // sleep for a bit....
+                int sleepTime = random.nextInt(maxSleep);
+                Thread.sleep(sleepTime);
+                activity.busy(System.nanoTime() - busyStart);
+            } catch (InterruptedException e) {
+                this.interrupt();
+            }
+        }
+        System.out.println("Dispatcher terminated");
+    }
+
+    /**
+     * Place a vial on the lane chosen by the policy, blocking on the least loaded lane if none is free.
+     */
+    protected void dispatch(Vial vial) throws InterruptedException {
+        int leastLoaded = 0;
+        int fewest = Integer.MAX_VALUE;
+        for (int l = 0; l < lanes.length; l++) {
+            int occupancy = lanes[l].getCarousel().getOccupancy();
+            if (occupancy < fewest) {
+                fewest = occupancy;
+                leastLoaded = l;
+            }
+        }
+
+        if (policy == Policy.LEAST_LOADED && lanes[leastLoaded].getCarousel().tryPutVial(vial, 0)) {
+            record(leastLoaded);
+            return;
+        }
+        for (int l = 0; l < lanes.length; l++) {
+            if (lanes[l].getCarousel().tryPutVial(vial, 0)) {
+                record(l);
+                return;
+            }
+        }
+
+        // every lane is busy at compartment 0
+        lanes[leastLoaded].getCarousel().putVial(vial, 0);
+        record(leastLoaded);
+    }
+
+    /**
+     * @param lane : the index of a lane
+     * @return the number of vials sent to the lane
+     */
+    public synchronized long getDispatched(int lane) {
+        return dispatched[lane];
+    }
+
+    private synchronized void record(int lane) {
+        dispatched[lane]++;
+    }
+}
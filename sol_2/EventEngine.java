@@ -0,0 +1,143 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A discrete-event engine with a simulated clock. Components are stepped in time order from a priority queue of
+ * timestamped events, so a sleep costs nothing but a queue entry. A component that cannot go on is retried after
+ * every later step until it can, which stands in for the wait()/notifyAll() of the threaded simulation.
+ */
+public class EventEngine {
+
+    /**
+     * A component due to be stepped at a point in simulated time.
+     */
+    private static class Event implements Comparable<Event> {
+        final long time;
+        final long seq;
+        // the component to step, or null just to retry the waiting ones
+        final SimProcess process;
+
+        Event(long time, long seq, SimProcess process) {
+            this.time = time;
+            this.seq = seq;
+            this.process = process;
+        }
+
+        // earlier events first, and events at the same time in the order they were scheduled
+        public int compareTo(Event other) {
+            if (time != other.time) {
+                return Long.compare(time, other.time);
+            }
+            return Long.compare(seq, other.seq);
+        }
+    }
+
+    // the events still to happen
+    private final PriorityQueue<Event> queue = new PriorityQueue<>();
+
+    // the components waiting for another component, in the order they started waiting
+    private final List<SimProcess> blocked = new ArrayList<>();
+
+    // the simulated time in milliseconds
+    private long now = 0;
+
+    // to keep events at the same time in order
+    private long seq = 0;
+
+    /**
+     * @return the current simulated time in milliseconds
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * Step a component after some simulated time has passed.
+     *
+     * @param process : the component to step
+     * @param delay : the simulated time in milliseconds from now
+     */
+    public void schedule(SimProcess process, long delay) {
+        queue.add(new Event(now + delay, seq++, process));
+    }
+
+    /**
+     * Give every waiting component another go after some simulated time has passed, e.g. for one that waits with
+     * a time limit and would otherwise not be retried until another component steps.
+     *
+     * @param delay : the simulated time in milliseconds from now
+     */
+    public void wake(long delay) {
+        schedule(null, delay);
+    }
+
+    /**
+     * Run the simulation until there are no more events or the clock passes a limit.
+     *
+     * @param until : the simulated time in milliseconds to stop at
+     * @throws OverloadException
+     *             if a vial is rotated beyond the final compartment.
+     */
+    public void run(long until) throws OverloadException {
+        run(until, () -> false);
+    }
+
+    /**
+     * Run the simulation until there are no more events, the clock passes a limit, or a condition becomes true.
+     * The condition is checked after every step; if it stops the run, the clock stays at the time of that step.
+     *
+     * @param until : the simulated time in milliseconds to stop at
+     * @param done : true once the run should stop
+     * @throws OverloadException
+     *             if a vial is rotated beyond the final compartment.
+     */
+    public void run(long until, BooleanSupplier done) throws OverloadException {
+        while (!queue.isEmpty() && queue.peek().time <= until) {
+            Event event = queue.poll();
+            now = event.time;
+            if (event.process != null) {
+                step(event.process);
+            }
+            retryBlocked();
+            if (done.getAsBoolean()) {
+                return;
+            }
+        }
+        now = Math.max(now, until);
+    }
+
+    /**
+     * Step a component, then schedule its next step or keep it waiting.
+     */
+    private void step(SimProcess process) throws OverloadException {
+        long delay = process.step();
+        if (delay == SimProcess.BLOCKED) {
+            blocked.add(process);
+        } else {
+            schedule(process, delay);
+        }
+    }
+
+    /**
+     * Give every waiting component another go, for as long as any of them can go on.
+     */
+    private void retryBlocked() throws OverloadException {
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            Iterator<SimProcess> waiting = blocked.iterator();
+            while (waiting.hasNext()) {
+                SimProcess process = waiting.next();
+                long delay = process.step();
+                if (delay != SimProcess.BLOCKED) {
+                    waiting.remove();
+                    schedule(process, delay);
+                    progress = true;
+                }
+            }
+        }
+    }
+}
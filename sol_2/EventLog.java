@@ -0,0 +1,162 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A binary log of every trace event, written through a memory-mapped file as fixed-width records. It is much
+ * cheaper to write than the printed trace and can be turned back into it with EventLogReader.
+ *
+ * The file starts with a header record, then holds one RECORD_SIZE record per event:
+ *
+ *   0  long   nanoseconds since the log was opened
+ *   8  byte   the TraceEvent ordinal plus one (0 marks the end of the log)
+ *   9  byte   the vial flags, from Vial.getFlags()
+ *   10 short  the compartment moved from, counting from 1, or 0
+ *   12 short  the compartment moved to, counting from 1, or 0
+ *   14 short  the carousel, as a name number, or 0
+ *   16 int    the vial ID
+ *
+ * The first time a carousel name is used it is defined by a record with NAME in byte 8, the name number at 10,
+ * the length of the name at 12 and up to MAX_NAME bytes of the name from 13.
+ *
+ * The file is mapped a REGION at a time, so while it is being written it ends in zeroed room for more records.
+ * Closing the log truncates the file to the records written. A reader takes the file length as the end of the
+ * log, and also stops at a record of kind 0, as in a log that was never closed.
+ */
+public class EventLog implements AutoCloseable {
+
+    // the width of every record, including the header
+    public static final int RECORD_SIZE = 32;
+
+    // identifies the file, and the layout of the records
+    public static final long MAGIC = 0x5649414c4c4f4731L; // "VIALLOG1"
+
+    // the kind of a record that defines a carousel name
+    public static final byte NAME = (byte) 0xff;
+
+    // the longest carousel name kept in a name record, in bytes
+    public static final int MAX_NAME = RECORD_SIZE - 13;
+
+    // how much of the file is mapped at a time
+    private static final long REGION = 16L << 20;
+
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    // where in the file the mapped region starts
+    private long regionStart;
+
+    // when the log was opened
+    private final long start;
+
+    // the name numbers given out so far
+    private final Map<String, Short> names = new HashMap<>();
+
+    /**
+     * Create a new, empty log in a file, replacing anything already there.
+     *
+     * @param path : the file to write
+     * @throws IOException
+     *             if the file cannot be created or mapped.
+     */
+    public EventLog(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        regionStart = 0;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, REGION);
+        start = System.nanoTime();
+
+        // the header: the magic number and the record width
+        buffer.putLong(MAGIC);
+        buffer.putInt(RECORD_SIZE);
+        buffer.position(RECORD_SIZE);
+    }
+
+    /**
+     * Append an event.
+     *
+     * @param event : the kind of event
+     * @param id : the ID of the vial
+     * @param flags : the flags of the vial, from Vial.getFlags()
+     * @param from : the compartment the vial moved from, counting from 1, or 0
+     * @param to : the compartment the vial moved to, counting from 1, or 0
+     * @param carousel : the name of the carousel, or null
+     * @param time : when the event happened, from System.nanoTime()
+     */
+    public synchronized void append(TraceEvent event, int id, int flags, int from, int to, String carousel,
+                                    long time) throws IOException {
+        short name = carousel == null ? 0 : nameNumber(carousel);
+        ByteBuffer record = next();
+        record.putLong(time - start);
+        record.put((byte) (event.ordinal() + 1));
+        record.put((byte) flags);
+        record.putShort((short) from);
+        record.putShort((short) to);
+        record.putShort(name);
+        record.putInt(id);
+        record.position(record.position() + RECORD_SIZE - 20);
+    }
+
+    /**
+     * Write everything appended so far through to the file.
+     */
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    /**
+     * Write everything through to the file and close it.
+     */
+    public synchronized void close() throws IOException {
+        buffer.force();
+        long end = regionStart + buffer.position();
+
+        // let the mapping go before cutting off the room after the last record
+        buffer = null;
+        channel.truncate(end);
+        channel.close();
+    }
+
+    /**
+     * @return the number for a carousel name, defining it in the log the first time it is seen
+     */
+    private short nameNumber(String carousel) throws IOException {
+        Short number = names.get(carousel);
+        if (number == null) {
+            number = (short) (names.size() + 1);
+            names.put(carousel, number);
+
+            byte[] bytes = carousel.getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(bytes.length, MAX_NAME);
+            ByteBuffer record = next();
+            int at = record.position();
+            record.position(at + 8);
+            record.put(NAME);
+            record.put((byte) 0);
+            record.putShort(number);
+            record.put((byte) length);
+            record.put(bytes, 0, length);
+            record.position(at + RECORD_SIZE);
+        }
+        return number;
+    }
+
+    /**
+     * @return the buffer, positioned at the start of room for another record
+     */
+    private ByteBuffer next() throws IOException {
+        if (buffer.remaining() < RECORD_SIZE) {
+            // map the next region, which starts where this one ends; this one is unmapped once it is collected
+            buffer.force();
+            regionStart += buffer.position();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, REGION);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,71 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads an EventLog and prints it as the usual output trace.
+ */
+public class EventLogReader {
+
+    /**
+     * The main method to print a log.
+     *
+     * @param args : the log file, then optionally --all to include the events that are not part of the printed
+     *             trace, and --times to start each line with the time of the event in milliseconds
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: EventLogReader <log file> [--all] [--times]");
+            System.exit(2);
+        }
+        boolean all = false;
+        boolean times = false;
+        for (int a = 1; a < args.length; a++) {
+            all |= args[a].equals("--all");
+            times |= args[a].equals("--times");
+        }
+
+        TraceEvent[] kinds = TraceEvent.values();
+        Map<Short, String> names = new HashMap<>();
+        StringBuilder line = new StringBuilder(128);
+        try (FileChannel channel = FileChannel.open(Paths.get(args[0]), StandardOpenOption.READ)) {
+            MappedByteBuffer log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (log.remaining() < EventLog.RECORD_SIZE || log.getLong(0) != EventLog.MAGIC ||
+                    log.getInt(8) != EventLog.RECORD_SIZE) {
+                System.err.println(args[0] + " is not an event log");
+                System.exit(1);
+            }
+
+            for (int at = EventLog.RECORD_SIZE; at + EventLog.RECORD_SIZE <= log.limit(); at += EventLog.RECORD_SIZE) {
+                byte kind = log.get(at + 8);
+                if (kind == 0) {
+                    // the end of the log
+                    break;
+                }
+                if (kind == EventLog.NAME) {
+                    byte[] bytes = new byte[log.get(at + 12)];
+                    log.get(at + 13, bytes);
+                    names.put(log.getShort(at + 10), new String(bytes, StandardCharsets.UTF_8));
+                    continue;
+                }
+
+                TraceEvent event = kinds[kind - 1];
+                if (!all && !event.isPrinted()) {
+                    continue;
+                }
+                line.setLength(0);
+                if (times) {
+                    line.append(log.getLong(at) / 1_000_000).append(' ');
+                }
+                event.format(line, log.getInt(at + 16), log.get(at + 9), log.getShort(at + 10),
+                        log.getShort(at + 12), names.get(log.getShort(at + 14)));
+                System.out.println(line);
+            }
+        }
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * The carousel holds vials of vaccine and rotates them from the compartment
  * at position 0, through to the scanner compartment, where they are
@@ -10,12 +12,108 @@ public class InspectionBay extends VaccineHandlingThread {
     protected Vial vial;
     protected Carousel destroyerCarousel;
 
+    // the number of this bay in its pool, from 1, or 0 if it is the only bay; and how it is referred to
+    protected final int number;
+    protected final String name;
+
+    // the pool this bay belongs to, told when the bay is emptied, if any
+    protected volatile InspectionPool pool = null;
+
+    // the number of vials this bay has inspected
+    protected volatile long inspected = 0;
+
+    // the vials inspected, and the time spent inspecting vs waiting for a vial or for the destroyer carousel
+    protected final LongAdder inspections = Metrics.counter("inspections");
+    protected final Metrics.Activity activity;
+
+    // when the vial in the bay arrived and when its inspection started, in milliseconds of the run's clock
+    protected long arrivedAt = 0;
+    protected long inspectionStartedAt = 0;
+
+    // per vial, the time from arriving to the start of the inspection, and the time the inspection took
+    protected final LatencyHistogram queueing;
+    protected final LatencyHistogram inspecting;
+
+    // the inspected vial on its way out of the bay to the destroyer carousel, and when it left the bay
+    protected Vial outbound = null;
+    protected long releasedAt = 0;
+
+    // per vial and in total, the time spent waiting for room on the destroyer carousel, in milliseconds
+    protected final LatencyHistogram downstream;
+    protected volatile long downstreamBlocked = 0;
+
+    // the configuration of the run
+    protected final Params params;
+
     /**
      * Create a new, empty inspection bay, initialised to be empty. Connect it to a destroyer carousel.
      */
     public InspectionBay(Carousel carousel) {
+        this(carousel, SimulationContext.current());
+    }
+
+    /**
+     * Create a new, empty inspection bay connected to a destroyer carousel in a run.
+     */
+    public InspectionBay(Carousel carousel, SimulationContext context) {
+        this(carousel, context, 0);
+    }
+
+    /**
+     * Create a new, empty inspection bay of a pool, connected to a destroyer carousel in a run.
+     *
+     * @param number : the number of the bay in its pool, from 1, or 0 if it is the only bay
+     */
+    public InspectionBay(Carousel carousel, SimulationContext context, int number) {
+        super(context);
         vial = null;
         destroyerCarousel = carousel;
+        this.params = context.getParams();
+        this.number = number;
+        this.name = number == 0 ? "inspection bay" : "inspection bay " + number;
+        this.activity = Metrics.activity(getName());
+        this.queueing = Metrics.timing("queueing delay " + name);
+        this.inspecting = Metrics.timing("inspection time " + name);
+        this.downstream = Metrics.timing("downstream blocked " + name);
+    }
+
+    /**
+     * @return the name of the bay, numbered if it is one of a pool
+     */
+    @Override
+    public String getName() {
+        return number == 0 ? "InspectionBay" : "InspectionBay " + number;
+    }
+
+    /**
+     * Make the bay tell a pool each time it is emptied.
+     */
+    void setPool(InspectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @return the number of vials this bay has inspected
+     */
+    public long getInspected() {
+        return inspected;
+    }
+
+    /**
+     * @return the time the bay has spent waiting for room on the destroyer carousel, in milliseconds
+     */
+    public long getDownstreamBlocked() {
+        return downstreamBlocked;
+    }
+
+    /**
+     * Tell the pool, if any, that the bay has been emptied.
+     */
+    private void emptied() {
+        InspectionPool p = pool;
+        if (p != null) {
+            p.bayEmptied();
+        }
     }
 
     /**
@@ -28,16 +126,37 @@ public class InspectionBay extends VaccineHandlingThread {
      */
     public synchronized void putVial(Vial newVial)
             throws InterruptedException {
+        MonitorProfile.Section profile = MonitorProfile.enter(name, "putVial");
+        try {
+            // while there is another vial in the way, block this thread
+            while (!isEmpty()) {
+                profile.await(this);
+            }
 
-        // while there is another vial in the way, block this thread
-        while (!isEmpty()) {
-            wait();
+            this.vial = newVial;
+            arrivedAt = context.now();
+
+            // notify any waiting threads that the carousel state has changed
+            notifyAll();
+        } finally {
+            profile.exit();
         }
+    }
 
+    /**
+     * Insert a vial into the inspection bay only if it is empty, without blocking.
+     *
+     * @param newVial : the vial to insert into the inspection bay.
+     * @return true if the vial was inserted, false if there was another vial in the way
+     */
+    public synchronized boolean tryPutVial(Vial newVial) {
+        if (!isEmpty()) {
+            return false;
+        }
         this.vial = newVial;
-
-        // notify any waiting threads that the carousel state has changed
+        arrivedAt = context.now();
         notifyAll();
+        return true;
     }
 
     /**
@@ -46,22 +165,52 @@ public class InspectionBay extends VaccineHandlingThread {
      * @return true if there is a vial and it is ready to be destroyer, false otherwise
      * @throws InterruptedException
      */
-    private synchronized Boolean isVialReadyForDestruction() throws InterruptedException {
+    synchronized Boolean isVialReadyForDestruction() throws InterruptedException {
         if (!isEmpty()) {
             return vial.isInspected() && vial.isTagged();
         }
         return false;
     }
 
+    /**
+     * Wait for a vial to arrive in the bay, then start inspecting it.
+     *
+     * @throws InterruptedException
+     *            if the thread executing is interrupted.
+     */
+    synchronized void awaitVial() throws InterruptedException {
+        MonitorProfile.Section profile = MonitorProfile.enter(name, "awaitVial");
+        try {
+            while (isEmpty()) {
+                profile.await(this);
+            }
+            startInspection();
+        } finally {
+            profile.exit();
+        }
+    }
+
+    /**
+     * Start inspecting the vial in the bay, recording how long it waited for the inspection to start.
+     */
+    synchronized void startInspection() {
+        inspectionStartedAt = context.now();
+        queueing.record(inspectionStartedAt - arrivedAt);
+    }
+
     /**
      * Tag and inspect the vial then notify other threads of the change
      *
      * @throws InterruptedException
      */
-    private synchronized void tagAndInspectVial() throws InterruptedException {
+    synchronized void tagAndInspectVial() throws InterruptedException {
         if (!isEmpty()) {
             vial.setTagged();
             vial.setInspected();
+            inspected++;
+            inspecting.record(context.now() - inspectionStartedAt);
+            Trace.record(TraceEvent.INSPECTED, vial);
+            Trace.record(TraceEvent.TAGGED, vial);
             notifyAll();
         }
     }
@@ -74,34 +223,96 @@ public class InspectionBay extends VaccineHandlingThread {
         return vial == null;
     }
 
-    public synchronized void sendVialToDestroyer() throws InterruptedException {
-        destroyerCarousel.putVial(vial, 0);
-        vial = null;
-        notifyAll();
+    /**
+     * @return true if an inspected vial has left the bay but is not yet on the destroyer carousel
+     */
+    public synchronized boolean isHandingOff() {
+        return outbound != null;
+    }
+
+    /**
+     * Move the inspected vial out of the bay, so the bay can take the next vial while this one waits for room on
+     * the destroyer carousel.
+     *
+     * @return the vial on its way to the destroyer carousel
+     */
+    private synchronized Vial release() {
+        if (outbound == null) {
+            outbound = vial;
+            releasedAt = context.now();
+            vial = null;
+            notifyAll();
+            emptied();
+        }
+        return outbound;
+    }
+
+    /**
+     * Record that the vial on its way out is on the destroyer carousel.
+     */
+    private synchronized void handedOff() {
+        long blocked = context.now() - releasedAt;
+        downstream.record(blocked);
+        downstreamBlocked += blocked;
+        outbound = null;
+    }
+
+    /**
+     * Send the inspected vial to the destroyer carousel, waiting for room on it. The bay's monitor is not held
+     * while waiting, so the shuttle can deliver the next vial meanwhile.
+     *
+     * @throws InterruptedException
+     *            if the thread executing is interrupted.
+     */
+    public void sendVialToDestroyer() throws InterruptedException {
+        destroyerCarousel.putVial(release(), 0);
+        handedOff();
+    }
+
+    /**
+     * Send the inspected vial to the destroyer carousel only if its first compartment is empty, without blocking.
+     * The vial leaves the bay either way, and waits outside it until it can be sent.
+     *
+     * @return true if the vial was sent, otherwise false
+     */
+    public boolean trySendVialToDestroyer() {
+        if (!destroyerCarousel.tryPutVial(release(), 0)) {
+            return false;
+        }
+        handedOff();
+        return true;
     }
 
     /**
-     * Continuously either (1) inspect and tag the vial or (2) send the vial off for destruction
+     * Continuously wait for a vial, inspect and tag it from the moment it arrives, and send it off for destruction
      */
     public void run() {
         while (!isInterrupted()) {
             try {
-                if (isVialReadyForDestruction()) {
-                    sendVialToDestroyer();
-                } else {
-                    Thread.sleep(Params.INSPECT_TIME);
+                long waitStart = System.nanoTime();
+                if (!isVialReadyForDestruction() && !isHandingOff()) {
+                    // sleeps on the bay's monitor until the shuttle delivers a vial
+                    awaitVial();
+                    long busyStart = System.nanoTime();
+                    activity.waiting(busyStart - waitStart);
+                    Thread.sleep(params.inspectTime);
                     tagAndInspectVial();
+                    waitStart = System.nanoTime();
+                    activity.busy(waitStart - busyStart);
+                    inspections.increment();
                 }
+                sendVialToDestroyer();
+                activity.waiting(System.nanoTime() - waitStart);
             } catch (InterruptedException e) {
                 this.interrupt();
             }
         }
 
-        System.out.println("InspectionBay terminated");
+        System.out.println(getName() + " terminated");
     }
 
-    public String toString() {
-        return "Inspection Bay: " + vial.toString();
+    public synchronized String toString() {
+        return "Inspection Bay: " + vial + (outbound == null ? "" : ", handing off " + outbound);
     }
 
 }
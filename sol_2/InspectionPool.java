@@ -0,0 +1,154 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A pool of inspection bays fed by the shuttles. Each bay inspects one vial at a time and forwards it to the
+ * destroyer carousel, so with K bays up to K defective vials are inspected at once. The shuttle hands a vial to the
+ * pool, which puts it in a free bay chosen by the policy, or waits until a bay is emptied if none is free.
+ */
+public class InspectionPool {
+
+    /**
+     * How a free bay is chosen for a vial.
+     */
+    public enum Policy {
+        // the next free bay after the one last given a vial, in order
+        ROUND_ROBIN,
+        // the free bay that has inspected the fewest vials so far
+        LEAST_BUSY
+    }
+
+    // the bays in the pool, and how a vial is given to one of them
+    protected final InspectionBay[] bays;
+    protected final Policy policy;
+
+    // the bay last given a vial
+    private int last = -1;
+
+    // the number of times a bay has been emptied, to wait for one to be
+    private long emptied = 0;
+
+    /**
+     * Create a pool of new, empty inspection bays, all connected to a destroyer carousel in a run. A pool of one
+     * bay is the single inspection bay of the original plant.
+     *
+     * @param count : the number of bays
+     * @param policy : how a free bay is chosen for a vial
+     * @param destroyerCarousel : where the bays send inspected vials
+     * @param context : the run the bays belong to
+     */
+    public InspectionPool(int count, Policy policy, Carousel destroyerCarousel, SimulationContext context) {
+        this(newBays(count, destroyerCarousel, context), policy);
+    }
+
+    /**
+     * Create a pool of some inspection bays.
+     *
+     * @param bays : the bays in the pool
+     * @param policy : how a free bay is chosen for a vial
+     */
+    public InspectionPool(InspectionBay[] bays, Policy policy) {
+        this.bays = bays;
+        this.policy = policy;
+        for (InspectionBay bay : bays) {
+            bay.setPool(this);
+        }
+    }
+
+    private static InspectionBay[] newBays(int count, Carousel destroyerCarousel, SimulationContext context) {
+        InspectionBay[] bays = new InspectionBay[count];
+        for (int b = 0; b < count; b++) {
+            bays[b] = new InspectionBay(destroyerCarousel, context, count == 1 ? 0 : b + 1);
+        }
+        return bays;
+    }
+
+    /**
+     * @return the bays in the pool, e.g. to start their threads
+     */
+    public InspectionBay[] getBays() {
+        return bays;
+    }
+
+    /**
+     * Put a vial in a free bay, waiting for a bay to be emptied if none is free.
+     *
+     * @param vial : the vial to be inspected
+     * @throws InterruptedException
+     *            if the thread executing is interrupted.
+     */
+    public void putVial(Vial vial) throws InterruptedException {
+        while (true) {
+            // the bays are tried without holding the pool's monitor, so a bay emptying can always tell the pool
+            long seen;
+            synchronized (this) {
+                seen = emptied;
+            }
+            if (tryPutVial(vial)) {
+                return;
+            }
+            synchronized (this) {
+                while (emptied == seen) {
+                    wait();
+                }
+            }
+        }
+    }
+
+    /**
+     * Put a vial in a free bay only if there is one, without blocking.
+     *
+     * @param vial : the vial to be inspected
+     * @return true if the vial was put in a bay, false if every bay was full
+     */
+    public boolean tryPutVial(Vial vial) {
+        if (policy == Policy.LEAST_BUSY) {
+            InspectionBay[] byInspections = bays.clone();
+            Arrays.sort(byInspections, Comparator.comparingLong(InspectionBay::getInspected));
+            for (InspectionBay bay : byInspections) {
+                if (bay.tryPutVial(vial)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        int start = nextAfterLast();
+        for (int b = 0; b < bays.length; b++) {
+            int index = (start + b) % bays.length;
+            if (bays[index].tryPutVial(vial)) {
+                given(index);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized int nextAfterLast() {
+        return last + 1;
+    }
+
+    private synchronized void given(int index) {
+        last = index;
+    }
+
+    /**
+     * Called by a bay when it has been emptied, to wake a shuttle waiting for a free bay.
+     */
+    synchronized void bayEmptied() {
+        emptied++;
+        notifyAll();
+    }
+
+    /**
+     * @return the number of vials each bay has inspected and how long it waited for the destroyer carousel, one
+     *         line per bay
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        for (InspectionBay bay : bays) {
+            report.append(String.format("%s: %d inspections, %d ms blocked downstream%n", bay.getName(),
+                    bay.getInspected(), bay.getDownstreamBlocked()));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * One lane of a multi-lane plant: a main carousel with its own drive, consumer and shuttle. The shuttles of every
+ * lane deliver defective vials to the same pool of inspection bays.
+ */
+public class Lane {
+
+    // the number of this lane, from 1
+    protected final int number;
+
+    // the components of the lane
+    protected final Carousel carousel;
+    protected final CarouselDrive driver;
+    protected final Consumer distributor;
+    protected final Shuttle shuttle;
+
+    /**
+     * Create a new lane around a carousel, connected to a shared pool of inspection bays.
+     */
+    public Lane(int number, Carousel carousel, InspectionPool inspectionBays, SimulationContext context) {
+        this.number = number;
+        this.carousel = carousel;
+        carousel.setName("main carousel " + number);
+        this.driver = new CarouselDrive(carousel, context);
+        this.distributor = new Consumer(carousel, context);
+        this.shuttle = new Shuttle(carousel, inspectionBays, context);
+    }
+
+    /**
+     * @return the carousel of this lane
+     */
+    public Carousel getCarousel() {
+        return carousel;
+    }
+
+    /**
+     * @return the number of vials distributed from this lane
+     */
+    public long getConsumed() {
+        return distributor.getConsumed();
+    }
+
+    /**
+     * @return the threads that make up this lane
+     */
+    public VaccineHandlingThread[] getThreads() {
+        return new VaccineHandlingThread[] { driver, distributor, shuttle };
+    }
+}
@@ -0,0 +1,113 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in milliseconds with log-linear buckets: exact below 2 * SUB_BUCKETS, and within
+ * 1 / SUB_BUCKETS (about 3%) of the true value above that. Recording is a few atomic increments, so any number of
+ * threads can record at once, and histograms can be merged, e.g. to combine runs.
+ */
+public class LatencyHistogram {
+
+    // the number of buckets per power of two, as a power of two
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    // enough buckets for any non-negative long
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency.
+     *
+     * @param millis : the latency in milliseconds; negative values are recorded as 0
+     */
+    public void record(long millis) {
+        long value = Math.max(0, millis);
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Add every latency recorded in another histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int b = 0; b < BUCKETS; b++) {
+            long c = other.counts.get(b);
+            if (c != 0) {
+                counts.addAndGet(b, c);
+            }
+        }
+        count.addAndGet(other.count.get());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    /**
+     * @return the number of latencies recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the largest latency recorded, or 0 if there are none
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile : between 0 and 100
+     * @return the latency at or below which the given percentage of latencies fall, to within a bucket, or 0 if
+     *         there are none
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts.get(b);
+            if (seen >= rank) {
+                return Math.min(highestInBucket(b), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return p50, p90, p99 and max in a fixed-width line
+     */
+    public String summary() {
+        return String.format("%8d %8d %8d %8d %8d", getCount(), getValueAtPercentile(50),
+                getValueAtPercentile(90), getValueAtPercentile(99), getMax());
+    }
+
+    /**
+     * @return the bucket a value falls in
+     */
+    private static int bucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * @return the largest value that falls in a bucket
+     */
+    private static long highestInBucket(int b) {
+        if (b < 2 * SUB_BUCKETS) {
+            return b;
+        }
+        int shift = b / SUB_BUCKETS - 1;
+        long lowest = (long) (b % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
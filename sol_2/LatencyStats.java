@@ -0,0 +1,125 @@
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * How long vials spend in the system and in each stage of it. Every trace event a vial goes through stamps the
+ * time on the vial; when a stage ends, its dwell time is recorded in that stage's histogram. The histograms can be
+ * read while the system runs.
+ *
+ * Events are recorded in the statistics of the SimulationContext current on the thread that records them, so each
+ * run has statistics of its own, timed by the run's clock.
+ */
+public class LatencyStats {
+
+    /**
+     * The stages a vial's time is measured over.
+     */
+    public enum Stage {
+        // from insertion at c0 to removal from the main carousel or the destroyer carousel
+        END_TO_END,
+        // a defective vial, from arriving at the scanner compartment c3 to being picked up by the shuttle, from c3
+        // or from the bypass lane
+        SCANNER_WAIT,
+        // a defective vial, from being picked up by the shuttle to being delivered to the inspection bay
+        SHUTTLE,
+        // a defective vial, from being delivered to the inspection bay to being put on the destroyer carousel
+        INSPECTION_BAY,
+        // a defective vial, from being put on the destroyer carousel to being taken off for destruction
+        DESTROYER
+    }
+
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+
+    // the time in milliseconds
+    private final LongSupplier clock;
+
+    /**
+     * Create new, empty statistics.
+     *
+     * @param clock : where the time in milliseconds comes from, e.g. a simulated clock
+     */
+    public LatencyStats(LongSupplier clock) {
+        this.clock = clock;
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * @return the statistics events recorded on this thread go to
+     */
+    public static LatencyStats current() {
+        return SimulationContext.current().getStats();
+    }
+
+    /**
+     * Stamp a vial's lifecycle with an event it has just gone through, and record the stage it ends, if any.
+     *
+     * @param event : the kind of event
+     * @param vial : the vial
+     * @param to : the compartment the vial moved to, counting from 1, if any
+     */
+    public void observe(TraceEvent event, Vial vial, int to) {
+        long now = clock.getAsLong();
+        switch (event) {
+            case INSERTED:
+                if (vial.isTagged()) {
+                    // onto the destroyer carousel
+                    end(Stage.INSPECTION_BAY, vial, now);
+                } else {
+                    // onto the main carousel
+                    vial.insertedAt = now;
+                    vial.stageAt = now;
+                }
+                break;
+            case ROTATED:
+                if (to == 3 && vial.isDefective() && !vial.isInspected()) {
+                    vial.stageAt = now;
+                }
+                break;
+            case SHUTTLE_PICKUP:
+                end(Stage.SCANNER_WAIT, vial, now);
+                break;
+            case SHUTTLE_DELIVERY:
+                end(Stage.SHUTTLE, vial, now);
+                break;
+            case REMOVED:
+                histograms.get(Stage.END_TO_END).record(now - vial.insertedAt);
+                break;
+            case DESTROYED:
+                end(Stage.DESTROYER, vial, now);
+                histograms.get(Stage.END_TO_END).record(now - vial.insertedAt);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return the histogram of a stage, as it stands
+     */
+    public LatencyHistogram get(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    /**
+     * @return a table of the count, p50, p90, p99 and max of every stage, in milliseconds
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-15s %8s %8s %8s %8s %8s%n", "stage (ms)", "count", "p50", "p90", "p99", "max"));
+        for (Stage stage : Stage.values()) {
+            report.append(String.format("%-15s %s%n", stage, histograms.get(stage).summary()));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Record the end of a stage and start the next.
+     */
+    private void end(Stage stage, Vial vial, long now) {
+        histograms.get(stage).record(now - vial.stageAt);
+        vial.stageAt = now;
+    }
+}
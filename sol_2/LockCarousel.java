@@ -0,0 +1,461 @@
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A main carousel guarded by a ReentrantLock instead of the carousel's monitor. Each thread waits on a
+ * condition that matches what it is waiting for (a compartment becoming empty, a compartment becoming full, a
+ * defective vial being in a compartment, or the carousel being able to rotate), so a change in the carousel only
+ * wakes the threads that could now make progress rather than every thread waiting on the carousel.
+ */
+public class LockCarousel extends Carousel {
+
+    // guards the compartments in place of the carousel's monitor
+    protected final ReentrantLock lock = new ReentrantLock();
+
+    // waiters for a compartment to become empty (putVial), one queue per compartment
+    protected final Condition[] slotEmpty;
+
+    // waiters for a compartment to become full (getVial), one queue per compartment
+    protected final Condition[] slotFull;
+
+    // waiters for a defective, uninspected vial in a compartment (getVialForInspection)
+    protected final Condition[] defectiveAt;
+
+    // waiters for the carousel to be able to rotate (rotate)
+    protected final Condition rotatable;
+
+    // the compartments that currently have at least one waiting thread
+    private final BitSet awaited = new BitSet();
+    private final int[] waitersAt;
+
+    // the number of threads currently waiting on any condition
+    private int waiters = 0;
+
+    // how many state changes there were, how many threads were woken,
+    // and how many a notifyAll() would have woken but were not
+    private long stateChanges = 0;
+    private long wakeups = 0;
+    private long wakeupsAvoided = 0;
+
+    /**
+     * Create a new, empty carousel with a specified number of compartments
+     */
+    public LockCarousel(int size) {
+        super(size);
+        slotEmpty = new Condition[size];
+        slotFull = new Condition[size];
+        defectiveAt = new Condition[size];
+        for (int i = 0; i < size; i++) {
+            slotEmpty[i] = lock.newCondition();
+            slotFull[i] = lock.newCondition();
+            defectiveAt[i] = lock.newCondition();
+        }
+        rotatable = lock.newCondition();
+        waitersAt = new int[size];
+    }
+
+    /**
+     * Create a new, empty carousel with the default number of compartments.
+     */
+    public LockCarousel() {
+        this(Params.DEFAULT.carouselSize);
+    }
+
+    /**
+     * Insert a vial into the carousel.
+     *
+     * @param vial
+     *            the vial to insert into the carousel.
+     * @throws InterruptedException
+     *            if the thread executing is interrupted.
+     */
+    @Override
+    public void putVial(Vial vial, int i) throws InterruptedException {
+        lock.lock();
+        try {
+            // while there is another vial in the way, block this thread
+            while (vialAt(i) != null) {
+                await(slotEmpty[i], i);
+            }
+
+            // insert the element at the specified location
+            setVialAt(i, vial);
+
+            // make a note of the event in output trace
+            Trace.record(TraceEvent.INSERTED, vial, 0, i+1, name);
+
+            // wake whoever is waiting on this compartment, and the drive if it can now rotate
+            changed();
+            signalCompartment(i);
+            signalRotatable();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Insert a vial into the carousel only if the compartment is empty, without blocking.
+     *
+     * @param vial : the vial to insert into the carousel.
+     * @param i : the compartment at i-1
+     * @return true if the vial was inserted, false if there was another vial in the way
+     */
+    @Override
+    public boolean tryPutVial(Vial vial, int i) {
+        lock.lock();
+        try {
+            if (vialAt(i) != null) {
+                return false;
+            }
+            setVialAt(i, vial);
+            Trace.record(TraceEvent.INSERTED, vial, 0, i+1, name);
+            changed();
+            signalCompartment(i);
+            signalRotatable();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of vials currently on the carousel
+     */
+    @Override
+    public int getOccupancy() {
+        lock.lock();
+        try {
+            return occupied.cardinality();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove a vial from a compartment of the carousel
+     *
+     * @param i : the compartment at i-1
+     * @return the removed vial
+     * @throws InterruptedException
+     *             if the thread executing is interrupted
+     */
+    @Override
+    public Vial getVial(int i) throws InterruptedException {
+        lock.lock();
+        try {
+            // while there is no vial in the specified compartment, block this thread
+            while (vialAt(i) == null) {
+                await(slotFull[i], i);
+            }
+            return take(i);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get a vial specifically for inspection
+     *
+     * @param i : the vial at compartment i-1
+     * @return : the vial to sent to the inspection subsystem
+     */
+    @Override
+    public Vial getVialForInspection(int i) throws InterruptedException {
+        lock.lock();
+        try {
+            // Block this thread if there is no vial or if the vial does not need to be inspected
+            while (!needsInspection(vialAt(i))) {
+                await(defectiveAt[i], i);
+            }
+            return take(i);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get a vial for inspection, waiting at most some time for one that needs inspecting.
+     *
+     * @param i : the vial at compartment i-1
+     * @param millis : the longest time to wait, more than 0
+     * @return the vial to be sent to the inspection subsystem, or null if there was none in time
+     */
+    @Override
+    public Vial getVialForInspection(int i, long millis) throws InterruptedException {
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+            while (!needsInspection(vialAt(i))) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = await(defectiveAt[i], i, nanos);
+            }
+            return take(i);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Look ahead of a compartment for a vial on its way there that will need inspecting.
+     *
+     * @param i : the compartment at i-1
+     * @param lookahead : the number of compartments before it to look at
+     * @return true if a defective vial that has not been inspected is in one of them
+     */
+    @Override
+    public boolean isInspectionComing(int i, int lookahead) {
+        lock.lock();
+        try {
+            for (int c = Math.max(0, i - lookahead); c < i; c++) {
+                if (needsInspection(vialAt(c))) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove a vial from a compartment of the carousel only if there is one, without blocking.
+     *
+     * @param i : the compartment at i-1
+     * @return the removed vial, or null if the compartment is empty
+     */
+    @Override
+    public Vial tryGetVial(int i) {
+        lock.lock();
+        try {
+            return vialAt(i) == null ? null : take(i);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get a vial for inspection only if there is one that needs inspecting, without blocking.
+     *
+     * @param i : the vial at compartment i-1
+     * @return the vial to be sent to the inspection subsystem, or null if there is none
+     */
+    @Override
+    public Vial tryGetVialForInspection(int i) {
+        lock.lock();
+        try {
+            return needsInspection(vialAt(i)) ? take(i) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rotate the carousel one position.
+     *
+     * @throws OverloadException
+     *             if a vial is rotated beyond the final compartment.
+     * @throws InterruptedException
+     *             if the thread executing is interrupted.
+     */
+    @Override
+    public void rotate() throws InterruptedException, OverloadException {
+        lock.lock();
+        try {
+            while (!canRotate()) {
+                await(rotatable, -1);
+            }
+
+            turn();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rotate the carousel one position only if it can rotate now, without blocking.
+     *
+     * @return true if the carousel rotated, otherwise false
+     * @throws OverloadException
+     *             if a vial is rotated beyond the final compartment.
+     */
+    @Override
+    public boolean tryRotate() throws OverloadException {
+        lock.lock();
+        try {
+            if (!canRotate()) {
+                return false;
+            }
+            turn();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of threads woken since the carousel was created
+     */
+    public long getWakeups() {
+        lock.lock();
+        try {
+            return wakeups;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of wakeups a notifyAll() on every change would have caused but this carousel did not
+     */
+    public long getWakeupsAvoided() {
+        lock.lock();
+        try {
+            return wakeupsAvoided;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return a one line summary of the wakeup counters
+     */
+    public String wakeupSummary() {
+        lock.lock();
+        try {
+            return "state changes: " + stateChanges +
+                    ", wakeups: " + wakeups +
+                    ", wakeups avoided vs notifyAll: " + wakeupsAvoided;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rotate the carousel and wake the threads that can now use their compartments.
+     * Must be called with the lock held.
+     */
+    private void turn() throws OverloadException {
+        advance();
+
+        // every compartment with a waiter may have changed, so wake one waiter on each
+        changed();
+        for (int i = awaited.nextSetBit(0); i >= 0; i = awaited.nextSetBit(i + 1)) {
+            signalCompartment(i);
+        }
+        signalRotatable();
+    }
+
+    /**
+     * Take the vial out of a compartment and wake the threads that can now use the compartment.
+     * Must be called with the lock held.
+     */
+    private Vial take(int i) {
+        Vial vial = vialAt(i);
+        setVialAt(i, null);
+
+        // print the removal message for the last
+        if (i == size - 1) {
+            removeMessage(vial);
+        }
+
+        changed();
+        signalCompartment(i);
+        signalRotatable();
+        return vial;
+    }
+
+    /**
+     * @return true if the vial is defective and still needs to go to the inspection bay
+     */
+    private boolean needsInspection(Vial vial) {
+        return vial != null && vial.isDefective() && !vial.isInspected();
+    }
+
+    /**
+     * Wait on a condition, keeping track of who is waiting where. If interrupted, pass the signal on to
+     * another waiter so it is not lost.
+     *
+     * @param condition : the condition to wait on
+     * @param i : the compartment being waited on, or -1 for the rotation condition
+     */
+    private void await(Condition condition, int i) throws InterruptedException {
+        await(condition, i, -1);
+    }
+
+    /**
+     * Wait on a condition for at most some time, as await(condition, i) does.
+     *
+     * @param condition : the condition to wait on
+     * @param i : the compartment being waited on, or -1 for the rotation condition
+     * @param nanos : the longest time to wait, or less than 0 to wait for ever
+     * @return an estimate of the time left to wait, as for Condition.awaitNanos
+     */
+    private long await(Condition condition, int i, long nanos) throws InterruptedException {
+        waiters++;
+        if (i >= 0 && waitersAt[i]++ == 0) {
+            awaited.set(i);
+        }
+        try {
+            if (nanos < 0) {
+                condition.await();
+                return nanos;
+            }
+            return condition.awaitNanos(nanos);
+        } catch (InterruptedException e) {
+            condition.signal();
+            throw e;
+        } finally {
+            waiters--;
+            if (i >= 0 && --waitersAt[i] == 0) {
+                awaited.clear(i);
+            }
+        }
+    }
+
+    /**
+     * Record a state change. A notifyAll() at this point would wake every waiting thread.
+     */
+    private void changed() {
+        stateChanges++;
+        wakeupsAvoided += waiters;
+    }
+
+    /**
+     * Wake one waiter whose predicate on compartment i may now be true.
+     */
+    private void signalCompartment(int i) {
+        Vial vial = vialAt(i);
+        if (vial == null) {
+            signal(slotEmpty[i]);
+        } else {
+            signal(slotFull[i]);
+            if (needsInspection(vial)) {
+                signal(defectiveAt[i]);
+            }
+        }
+    }
+
+    /**
+     * Wake the carousel drive if the carousel can now rotate.
+     */
+    private void signalRotatable() {
+        if (canRotate()) {
+            signal(rotatable);
+        }
+    }
+
+    /**
+     * Signal a condition if anyone is waiting on it, counting the wakeup.
+     */
+    private void signal(Condition condition) {
+        if (lock.hasWaiters(condition)) {
+            condition.signal();
+            wakeups++;
+            wakeupsAvoided--;
+        }
+    }
+}
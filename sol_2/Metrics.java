@@ -0,0 +1,143 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and busy/waiting times of the components, kept in LongAdders so that the components can update them on
+ * every vial without contending with each other, and per-vial timings, kept in LatencyHistograms. A component looks
+ * its counters and timings up once, when it is created, and only updates them after that. A reporter thread can
+ * print the rates every few seconds while the system runs.
+ */
+public class Metrics {
+
+    /**
+     * The time a component has spent doing its work (busy), blocked on another component (waiting), and with
+     * nothing to do (idle).
+     */
+    public static class Activity {
+
+        // nanoseconds spent working, e.g. rotating, travelling or inspecting
+        protected final LongAdder busy = new LongAdder();
+
+        // nanoseconds spent blocked on a carousel, the inspection bay or the destroyer carousel
+        protected final LongAdder waiting = new LongAdder();
+
+        // nanoseconds spent with nothing to work on, e.g. a drive with an empty carousel
+        protected final LongAdder idle = new LongAdder();
+
+        /**
+         * @param nanos : time spent working
+         */
+        public void busy(long nanos) {
+            busy.add(nanos);
+        }
+
+        /**
+         * @param nanos : time spent blocked on another component
+         */
+        public void waiting(long nanos) {
+            waiting.add(nanos);
+        }
+
+        /**
+         * @param nanos : time spent with nothing to work on
+         */
+        public void idle(long nanos) {
+            idle.add(nanos);
+        }
+    }
+
+    // the counters, by name
+    private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+
+    // the busy/waiting times, by component
+    private static final Map<String, Activity> activities = new ConcurrentSkipListMap<>();
+
+    // the per-vial timings, in milliseconds of the run's clock, by name
+    private static final Map<String, LatencyHistogram> timings = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param name : the name of the counter, e.g. "rotations main carousel"
+     * @return the counter, created at zero the first time it is asked for
+     */
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * @param component : the name of the component, e.g. "Shuttle main carousel"
+     * @return the component's busy/waiting times, created at zero the first time they are asked for
+     */
+    public static Activity activity(String component) {
+        return activities.computeIfAbsent(component, c -> new Activity());
+    }
+
+    /**
+     * @param name : the name of the timing, e.g. "queueing delay inspection bay"
+     * @return the histogram of the timing in milliseconds, created empty the first time it is asked for
+     */
+    public static LatencyHistogram timing(String name) {
+        return timings.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    /**
+     * @return the value of every counter, by name, as it stands
+     */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        return values;
+    }
+
+    /**
+     * Describe the counters and utilisations as they stand, with the rate of each counter since an earlier snapshot.
+     *
+     * @param previous : the snapshot at the start of the interval, or an empty map for the whole run
+     * @param seconds : the length of the interval
+     * @return a table of the counters, a table of the timings if there are any, and one line of utilisations
+     */
+    public static String report(Map<String, Long> previous, double seconds) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-40s %10s %10s%n", "counter", "total", "per sec"));
+        snapshot().forEach((name, total) -> report.append(String.format("%-40s %10d %10.2f%n",
+                name, total, (total - previous.getOrDefault(name, 0L)) / seconds)));
+        if (!timings.isEmpty()) {
+            report.append(String.format("%-40s %8s %8s %8s %8s %8s%n", "timing (ms)", "count", "p50", "p90", "p99",
+                    "max"));
+            timings.forEach((name, timing) -> report.append(String.format("%-40s %s%n", name, timing.summary())));
+        }
+        report.append("busy:");
+        activities.forEach((component, activity) -> {
+            long busy = activity.busy.sum();
+            long total = busy + activity.waiting.sum() + activity.idle.sum();
+            report.append(String.format(" %s %.0f%%;", component, total == 0 ? 0.0 : 100.0 * busy / total));
+        });
+        report.append(System.lineSeparator());
+        return report.toString();
+    }
+
+    /**
+     * Start a daemon thread that prints the rates of the counters over the last interval, every interval.
+     *
+     * @param seconds : the interval between reports
+     */
+    public static void startReporter(long seconds) {
+        Thread reporter = new Thread(() -> {
+            Map<String, Long> previous = snapshot();
+            try {
+                while (true) {
+                    TimeUnit.SECONDS.sleep(seconds);
+                    Map<String, Long> current = snapshot();
+                    System.out.print(report(previous, seconds));
+                    previous = current;
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }, "MetricsReporter");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+}
@@ -0,0 +1,146 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A profile of the time components spend in the monitors of the carousels and the inspection bay. Each
+ * synchronized method with a wait() loop opens a section when it gets the monitor and closes it when it returns;
+ * the section counts the wakeups, the spurious wakeups (the thread woke up but had to wait again), the time blocked
+ * in wait() and the time the monitor was held. The counts are kept per method and per calling component, and are
+ * only taken while profiling is enabled.
+ */
+public class MonitorProfile {
+
+    /**
+     * The counts for one method of one monitor, called by one component.
+     */
+    static class Counts {
+        final LongAdder calls = new LongAdder();
+        final LongAdder wakeups = new LongAdder();
+        final LongAdder spurious = new LongAdder();
+        final LongAdder blockedNanos = new LongAdder();
+        final LongAdder heldNanos = new LongAdder();
+    }
+
+    /**
+     * One call of a profiled method, from getting the monitor to returning.
+     */
+    public static class Section {
+
+        // where the counts go, or null if profiling is disabled
+        private final Counts counts;
+
+        // when the monitor was got, and the time since spent in wait() without it
+        private final long start;
+        private long blocked = 0;
+
+        // set once the thread has been woken, so that another wait() means the wakeup was spurious
+        private boolean woken = false;
+
+        private Section(Counts counts) {
+            this.counts = counts;
+            this.start = counts == null ? 0 : System.nanoTime();
+        }
+
+        /**
+         * Wait on the monitor the caller holds, counting the wakeup.
+         *
+         * @param monitor : the object whose monitor the caller holds
+         * @throws InterruptedException
+         *            if the thread executing is interrupted.
+         */
+        public void await(Object monitor) throws InterruptedException {
+            await(monitor, 0);
+        }
+
+        /**
+         * Wait on the monitor the caller holds for at most some time, counting the wakeup.
+         *
+         * @param monitor : the object whose monitor the caller holds
+         * @param millis : the longest time to wait, or 0 to wait for ever
+         * @throws InterruptedException
+         *            if the thread executing is interrupted.
+         */
+        public void await(Object monitor, long millis) throws InterruptedException {
+            if (counts == null) {
+                monitor.wait(millis);
+                return;
+            }
+            if (woken) {
+                // woken up last time, but what the thread waits for is still not true
+                counts.spurious.increment();
+            }
+            long waitStart = System.nanoTime();
+            try {
+                monitor.wait(millis);
+            } finally {
+                blocked += System.nanoTime() - waitStart;
+            }
+            counts.wakeups.increment();
+            woken = true;
+        }
+
+        /**
+         * Close the section as the caller is about to give up the monitor.
+         */
+        public void exit() {
+            if (counts == null) {
+                return;
+            }
+            counts.calls.increment();
+            counts.blockedNanos.add(blocked);
+            counts.heldNanos.add(System.nanoTime() - start - blocked);
+        }
+    }
+
+    // shared by every call while profiling is disabled
+    private static final Section DISABLED = new Section(null);
+
+    private static volatile boolean enabled = false;
+
+    // the counts, by "monitor.method <- component"
+    private static final Map<String, Counts> counts = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param on : true to start profiling, false to stop
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * @return true if profiling is enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Open a section for a call of a profiled method. Must be called with the monitor held.
+     *
+     * @param monitor : the name of the monitor, e.g. "main carousel"
+     * @param method : the name of the method
+     * @return the section, to be closed with exit() before the method returns
+     */
+    public static Section enter(String monitor, String method) {
+        if (!enabled) {
+            return DISABLED;
+        }
+        String key = monitor + "." + method + " <- " + Thread.currentThread().getName();
+        return new Section(counts.computeIfAbsent(key, k -> new Counts()));
+    }
+
+    /**
+     * @return a table of the calls, wakeups, spurious wakeups, blocked time and hold time of every profiled method
+     *         and calling component, in milliseconds
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-60s %8s %8s %8s %10s %10s%n",
+                "monitor.method <- component", "calls", "wakeups", "spurious", "blocked ms", "held ms"));
+        counts.forEach((key, c) -> report.append(String.format("%-60s %8d %8d %8d %10.1f %10.3f%n",
+                key, c.calls.sum(), c.wakeups.sum(), c.spurious.sum(),
+                c.blockedNanos.sum() / 1e6, c.heldNanos.sum() / 1e6)));
+        return report.toString();
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.Map;
+
+/**
+ * A simulator for a plant with several main carousel lanes fed by one dispatcher. The lanes share the inspection
+ * bay and the destroyer carousel subsystem. After a fixed time it reports how many vials each lane distributed.
+ */
+public class MultiLaneSim {
+
+    /**
+     * The main method to run the multi-lane simulator.
+     *
+     * @param args : --lanes=N (default 2), --policy=first-free|least-loaded (default least-loaded),
+     *             --seconds=S to run for (default 60), --carousel=monitor|lock|cas|bypass (default monitor),
+     *             --threads=platform|virtual (default platform), --trace=async|sync|off (default async),
+     *             --seed=N to reproduce the random choices of an earlier run,
+     *             --metrics-every=S to print the component counters every S seconds,
+     *             --profile-monitors to count wakeups and blocked/held time in the monitors,
+     *             --bay-policy=round-robin|least-busy for how the shuttles choose a free inspection bay,
+     *             --NAME=VALUE for any of Params.NAMES
+     */
+    public static void main(String[] args) {
+        int laneCount = 2;
+        Dispatcher.Policy policy = Dispatcher.Policy.LEAST_LOADED;
+        int seconds = 60;
+        String carouselMode = "monitor";
+        String threadMode = "platform";
+        InspectionPool.Policy bayPolicy = InspectionPool.Policy.ROUND_ROBIN;
+        RandomStreams random = new RandomStreams();
+        for (String arg : args) {
+            if (arg.startsWith("--lanes=")) {
+                laneCount = Integer.parseInt(arg.substring("--lanes=".length()));
+            } else if (arg.startsWith("--policy=")) {
+                policy = Dispatcher.Policy.valueOf(
+                        arg.substring("--policy=".length()).toUpperCase().replace('-', '_'));
+            } else if (arg.startsWith("--bay-policy=")) {
+                bayPolicy = InspectionPool.Policy.valueOf(
+                        arg.substring("--bay-policy=".length()).toUpperCase().replace('-', '_'));
+            } else if (arg.startsWith("--seconds=")) {
+                seconds = Integer.parseInt(arg.substring("--seconds=".length()));
+            } else if (arg.startsWith("--carousel=")) {
+                carouselMode = arg.substring("--carousel=".length());
+            } else if (arg.startsWith("--threads=")) {
+                threadMode = arg.substring("--threads=".length());
+            } else if (arg.startsWith("--seed=")) {
+                random = new RandomStreams(Long.parseLong(arg.substring("--seed=".length())));
+            } else if (arg.startsWith("--trace=")) {
+                Trace.setMode(Trace.Mode.valueOf(arg.substring("--trace=".length()).toUpperCase()));
+            } else if (arg.startsWith("--metrics-every=")) {
+                Metrics.startReporter(Long.parseLong(arg.substring("--metrics-every=".length())));
+            } else if (arg.equals("--profile-monitors")) {
+                MonitorProfile.setEnabled(true);
+            }
+        }
+
+        Params params = Params.DEFAULT.withArgs(args);
+        SimulationContext context = new SimulationContext(random, params);
+        context.bind();
+
+        // Components of the destroyer carousel subsystem
+        Carousel destroyerCarousel = new DestroyerCarousel();
+        Consumer destroyer = new Consumer(destroyerCarousel, context);
+        CarouselDrive destroyerDriver = new CarouselDrive(destroyerCarousel, context);
+        InspectionPool inspectionBays = new InspectionPool(params.inspectionBays, bayPolicy, destroyerCarousel,
+                context);
+
+        // the lanes, and a dispatcher that offers vials as fast as all the lanes together can take them
+        Lane[] lanes = new Lane[laneCount];
+        for (int l = 0; l < laneCount; l++) {
+            lanes[l] = new Lane(l + 1, Sim.newCarousel(carouselMode, params), inspectionBays, context);
+        }
+        Dispatcher dispatcher = new Dispatcher(lanes, policy, Math.max(1, params.producerMaxSleep / laneCount),
+                context);
+
+        // the dispatcher stops first, then the lanes and the destroyer downstream of them
+        Supervisor supervisor = new Supervisor(context);
+        supervisor.addSource(dispatcher);
+        for (Lane lane : lanes) {
+            for (VaccineHandlingThread thread : lane.getThreads()) {
+                supervisor.add(thread);
+            }
+        }
+        for (InspectionBay inspectionBay : inspectionBays.getBays()) {
+            supervisor.add(inspectionBay);
+        }
+        supervisor.add(destroyerDriver);
+        supervisor.add(destroyer);
+
+        // run for the requested time, unless a thread fails or stops first
+        supervisor.start(ComponentThreads.forMode(threadMode));
+        supervisor.awaitEnd(seconds * 1000L);
+        long elapsed = supervisor.getRunMillis();
+
+        // stop the threads without waiting for the vials to drain; the rates are over the run itself
+        supervisor.shutdown(0, 1000);
+
+        // report throughput per lane and for the plant
+        double minutes = elapsed / 60000.0;
+        long total = 0;
+        Trace.flush();
+        System.out.println("Sim terminating");
+        System.out.println(laneCount + " lanes, " + policy + ", " + elapsed + " ms, seed " + random.getSeed());
+        for (int l = 0; l < laneCount; l++) {
+            long consumed = lanes[l].getConsumed();
+            total += consumed;
+            System.out.println(String.format("lane %d: dispatched %d, distributed %d, %.1f vials/min",
+                    l + 1, dispatcher.getDispatched(l), consumed, consumed / minutes));
+        }
+        System.out.println(String.format("all lanes: distributed %d, %.1f vials/min, destroyed %d",
+                total, total / minutes, destroyer.getConsumed()));
+        System.out.print(supervisor.report());
+        System.out.print(context.getStats().report());
+        System.out.print(Metrics.report(Map.of(), elapsed / 1000.0));
+        if (MonitorProfile.isEnabled()) {
+            System.out.print(MonitorProfile.report());
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,225 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Explores the design space of the plant by running many discrete-event simulations, one per combination of the
+ * parameter values asked for (and per seed), in parallel on a fork/join pool. Each run has its own Params, plant,
+ * clock and latency statistics, so the runs do not interfere. At the end it prints one line per configuration with
+ * its throughput and latencies, the runs of a configuration taken together: "blocked" is the share of the main
+ * carousel's rotations that had to wait for a vial held on it (not for an empty carousel to get one), "c3 p99"
+ * how long a defective vial waited at the scanner compartment for the shuttle, and "shuttle" the share of the time
+ * the shuttle spent travelling.
+ */
+public class ParamSweep {
+
+    /**
+     * The result of one configuration, over all its runs.
+     */
+    static class Result {
+        final Params params;
+        long simMillis = 0;
+        long distributed = 0;
+        long destroyed = 0;
+        long rotations = 0;
+        long rotationsBlocked = 0;
+        long shuttleBusy = 0;
+        int overloads = 0;
+        final LatencyHistogram endToEnd = new LatencyHistogram();
+        final LatencyHistogram scannerWait = new LatencyHistogram();
+
+        Result(Params params) {
+            this.params = params;
+        }
+
+        /**
+         * Add a finished run to the result.
+         */
+        synchronized void add(DiscreteEventSim sim, boolean overloaded) {
+            simMillis += sim.now();
+            distributed += sim.getDistributed();
+            destroyed += sim.getDestroyed();
+            rotations += sim.getRotations();
+            rotationsBlocked += sim.getRotationsBlocked();
+            shuttleBusy += sim.getShuttleBusy();
+            overloads += overloaded ? 1 : 0;
+            endToEnd.add(sim.getStats().get(LatencyStats.Stage.END_TO_END));
+            scannerWait.add(sim.getStats().get(LatencyStats.Stage.SCANNER_WAIT));
+        }
+    }
+
+    /**
+     * Runs a range of the jobs, splitting it in two until it is a single run.
+     */
+    static class Runs extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Result> results;
+        private final String carouselMode;
+        private final int runsPerConfig;
+        private final long seed;
+        private final long vials;
+        private final int from;
+        private final int to;
+
+        Runs(List<Result> results, String carouselMode, int runsPerConfig, long seed, long vials, int from, int to) {
+            this.results = results;
+            this.carouselMode = carouselMode;
+            this.runsPerConfig = runsPerConfig;
+            this.seed = seed;
+            this.vials = vials;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Runs(results, carouselMode, runsPerConfig, seed, vials, from, middle),
+                        new Runs(results, carouselMode, runsPerConfig, seed, vials, middle, to));
+                return;
+            }
+            // job n is run n % runsPerConfig of configuration n / runsPerConfig
+            Result result = results.get(from / runsPerConfig);
+            DiscreteEventSim sim = new DiscreteEventSim(new RandomStreams(seed + from % runsPerConfig),
+                    result.params, carouselMode, InspectionPool.Policy.ROUND_ROBIN);
+            boolean overloaded = false;
+            try {
+                sim.run(Long.MAX_VALUE, vials);
+            } catch (OverloadException e) {
+                overloaded = true;
+            }
+            result.add(sim, overloaded);
+        }
+    }
+
+    /**
+     * The main method to run a sweep.
+     *
+     * @param args : --NAME=V1,V2,... or --NAME=FROM:TO:STEP for any of Params.NAMES (the others keep their
+     *             defaults), --carousel=monitor|bypass for the main carousel of every run (default monitor),
+     *             --vials=N to leave the plant in each run (default 2000), --runs=R seeds per
+     *             configuration (default 1), --seed=S for the first seed (default 1), --parallelism=P threads
+     *             (default one per core)
+     */
+    public static void main(String[] args) {
+        long vials = 2000;
+        String carouselMode = "monitor";
+        int runsPerConfig = 1;
+        long seed = 1;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        List<String> swept = new ArrayList<>();
+        List<Map<String, String>> configs = new ArrayList<>();
+        configs.add(Map.of());
+        for (String arg : args) {
+            if (arg.startsWith("--vials=")) {
+                vials = Long.parseLong(arg.substring("--vials=".length()));
+            } else if (arg.startsWith("--carousel=")) {
+                carouselMode = arg.substring("--carousel=".length());
+            } else if (arg.startsWith("--runs=")) {
+                runsPerConfig = Integer.parseInt(arg.substring("--runs=".length()));
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(arg.substring("--seed=".length()));
+            } else if (arg.startsWith("--parallelism=")) {
+                parallelism = Integer.parseInt(arg.substring("--parallelism=".length()));
+            } else {
+                for (String name : Params.NAMES) {
+                    if (arg.startsWith("--" + name + "=")) {
+                        swept.add(name);
+                        configs = cross(configs, name, values(name, arg.substring(name.length() + 3)));
+                    }
+                }
+            }
+        }
+
+        // the runs trace nothing; only their statistics are wanted
+        Trace.setMode(Trace.Mode.OFF);
+
+        List<Result> results = new ArrayList<>();
+        for (Map<String, String> changes : configs) {
+            results.add(new Result(Params.DEFAULT.with(changes)));
+        }
+        long start = System.currentTimeMillis();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        pool.invoke(new Runs(results, carouselMode, runsPerConfig, seed, vials, 0, results.size() * runsPerConfig));
+        pool.shutdown();
+        long elapsed = System.currentTimeMillis() - start;
+
+        StringBuilder header = new StringBuilder();
+        for (String name : swept) {
+            header.append(String.format("%-18s ", name));
+        }
+        header.append(String.format("%10s %10s %10s %10s %10s %10s %10s %10s %9s", "vials/min", "destroyed",
+                "e2e p50", "e2e p99", "e2e max", "blocked", "c3 p99", "shuttle", "overloads"));
+        System.out.println(header);
+        for (Result result : results) {
+            StringBuilder line = new StringBuilder();
+            for (String name : swept) {
+                line.append(String.format("%-18s ", result.params.get(name)));
+            }
+            line.append(String.format(Locale.ROOT, "%10.2f %10d %10d %10d %10d %10.3f %10d %10.3f %9d",
+                    result.simMillis == 0 ? 0.0 : (result.distributed + result.destroyed) * 60000.0 / result.simMillis,
+                    result.destroyed,
+                    result.endToEnd.getValueAtPercentile(50),
+                    result.endToEnd.getValueAtPercentile(99),
+                    result.endToEnd.getMax(),
+                    result.rotations == 0 ? 0.0 : (double) result.rotationsBlocked / result.rotations,
+                    result.scannerWait.getValueAtPercentile(99),
+                    result.simMillis == 0 ? 0.0 : (double) result.shuttleBusy / result.simMillis,
+                    result.overloads));
+            System.out.println(line);
+        }
+        System.out.println(configs.size() + " configurations x " + runsPerConfig + " runs of " + vials +
+                " vials on the " + carouselMode + " carousel in " + elapsed + " ms on " + parallelism + " threads");
+    }
+
+    /**
+     * @param configs : the changes to the default parameters of each configuration so far
+     * @return every configuration with every value of one more parameter; the parameters are only validated once
+     *         every swept parameter has a value, so they may be swept in any order
+     */
+    private static List<Map<String, String>> cross(List<Map<String, String>> configs, String name,
+            List<String> values) {
+        List<Map<String, String>> crossed = new ArrayList<>();
+        for (Map<String, String> changes : configs) {
+            for (String value : values) {
+                Map<String, String> config = new HashMap<>(changes);
+                config.put(name, value);
+                crossed.add(config);
+            }
+        }
+        return crossed;
+    }
+
+    /**
+     * @param name : the parameter the values are for; a range of an integer parameter gives whole numbers
+     * @param range : a comma separated list of values, or FROM:TO:STEP with TO included and STEP more than 0
+     * @return the values
+     */
+    private static List<String> values(String name, String range) {
+        List<String> values = new ArrayList<>();
+        String[] bounds = range.split(":");
+        if (bounds.length == 3) {
+            double from = Double.parseDouble(bounds[0]);
+            double to = Double.parseDouble(bounds[1]);
+            double step = Double.parseDouble(bounds[2]);
+            if (step <= 0) {
+                throw new IllegalArgumentException("the step of a range must be more than 0: " + range);
+            }
+            boolean integral = Params.DEFAULT.get(name) instanceof Integer;
+            for (int i = 0; from + i * step <= to + step / 1e6; i++) {
+                double value = from + i * step;
+                values.add(integral ? String.valueOf(Math.round(value)) : String.format(Locale.ROOT, "%.4f", value));
+            }
+        } else {
+            for (String value : range.split(",")) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+}
@@ -1,33 +1,211 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
- * Parameters that influence the behaviour of the system.
+ * Parameters that influence the behaviour of the system. A Params is the configuration of one run: it is
+ * immutable, and with() gives a copy with one parameter changed, so runs with different configurations
+ * can go on side by side.
  */
 
 public class Params {
 
+    // the configuration used when none is given
+    public final static Params DEFAULT = new Params();
+
+    // the names of the parameters, as used on the command line
+    public final static String[] NAMES = { "carousel-size", "producer-max-sleep", "consumer-min-sleep",
+            "consumer-max-sleep", "drive-time", "shuttle-time", "inspect-time", "defect-prob", "bypass-capacity",
+            "inspection-bays", "shuttle-capacity", "shuttle-max-hold", "shuttle-lookahead" };
+
     // the number of compartments in this carousel
-    public final static int CAROUSEL_SIZE = 5;
-    
+    public final int carouselSize;
+
     // the maximum amount of time the producer waits
-	public final static int PRODUCER_MAX_SLEEP = 3000;
-	
+	public final int producerMaxSleep;
+
 	// the minimum amount of time the consumer waits
-	public final static int CONSUMER_MIN_SLEEP = 500;
-	
+	public final int consumerMinSleep;
+
     // the maximum amount of time the consumer waits
-	public final static int CONSUMER_MAX_SLEEP = 2800;
-	
+	public final int consumerMaxSleep;
+
 	// the amount of time it takes to move the belt
-	public final static int DRIVE_TIME = 900;
-	
-	// the amount of time it takes the shuttle to move 
+	public final int driveTime;
+
+	// the amount of time it takes the shuttle to move
 	// between the carousel and the inspection bay
-	public final static int SHUTTLE_TIME = 900;
+	public final int shuttleTime;
 
 	// the amount of time it takes to inspect a vial
-	public final static int INSPECT_TIME = 5000;
-	
+	public final int inspectTime;
+
 	// probability that a vial is defective
-	public final static double DEFECT_PROB = 0.3;
-	
+	public final double defectProb;
+
+	// the number of defective vials the bypass lane of a BypassCarousel holds
+	public final int bypassCapacity;
+
+	// the number of inspection bays the shuttle delivers to
+	public final int inspectionBays;
+
+	// the number of vials the shuttle carries on one trip
+	public final int shuttleCapacity;
+
+	// the longest time the shuttle waits at the carousel for more vials once it has one, before it leaves
+	// with what it has; 0 to leave at once
+	public final int shuttleMaxHold;
+
+	// the number of compartments before the scanner compartment the shuttle watches while it holds: it only
+	// goes on waiting for more vials while a defective one is on its way; 0 to wait out the hold time. This
+	// only shortens multi-vial holds and does not pre-position the shuttle, so it has no effect unless
+	// shuttleCapacity > 1 and shuttleMaxHold > 0
+	public final int shuttleLookahead;
+
+    /**
+     * Create the default configuration.
+     */
+    private Params() {
+        carouselSize = 5;
+        producerMaxSleep = 3000;
+        consumerMinSleep = 500;
+        consumerMaxSleep = 2800;
+        driveTime = 900;
+        shuttleTime = 900;
+        inspectTime = 5000;
+        defectProb = 0.3;
+        bypassCapacity = 4;
+        inspectionBays = 1;
+        shuttleCapacity = 1;
+        shuttleMaxHold = 0;
+        shuttleLookahead = 0;
+        validate();
+    }
+
+    /**
+     * Copy a configuration, with some parameters changed. Only the result is validated, so the changes may be
+     * given in any order.
+     *
+     * @param from : the configuration to copy
+     * @param changes : the new values of the parameters changed, by name
+     */
+    private Params(Params from, Map<String, String> changes) {
+        carouselSize = pick(from.carouselSize, "carousel-size", changes);
+        producerMaxSleep = pick(from.producerMaxSleep, "producer-max-sleep", changes);
+        consumerMinSleep = pick(from.consumerMinSleep, "consumer-min-sleep", changes);
+        consumerMaxSleep = pick(from.consumerMaxSleep, "consumer-max-sleep", changes);
+        driveTime = pick(from.driveTime, "drive-time", changes);
+        shuttleTime = pick(from.shuttleTime, "shuttle-time", changes);
+        inspectTime = pick(from.inspectTime, "inspect-time", changes);
+        defectProb = changes.containsKey("defect-prob") ? Double.parseDouble(changes.get("defect-prob")) :
+                from.defectProb;
+        bypassCapacity = pick(from.bypassCapacity, "bypass-capacity", changes);
+        inspectionBays = pick(from.inspectionBays, "inspection-bays", changes);
+        shuttleCapacity = pick(from.shuttleCapacity, "shuttle-capacity", changes);
+        shuttleMaxHold = pick(from.shuttleMaxHold, "shuttle-max-hold", changes);
+        shuttleLookahead = pick(from.shuttleLookahead, "shuttle-lookahead", changes);
+        validate();
+    }
+
+    /**
+     * @return the new value if the parameter is one being changed, otherwise the value copied
+     */
+    private static int pick(int copied, String parameter, Map<String, String> changes) {
+        String value = changes.get(parameter);
+        return value == null ? copied : Integer.parseInt(value);
+    }
+
+    private void validate() {
+        if (carouselSize < 3 || producerMaxSleep < 1 || consumerMinSleep < 0 ||
+                consumerMaxSleep <= consumerMinSleep || driveTime < 0 || shuttleTime < 0 || inspectTime < 0 ||
+                defectProb < 0 || defectProb > 1 || bypassCapacity < 1 || inspectionBays < 1 ||
+                shuttleCapacity < 1 || shuttleMaxHold < 0 || shuttleLookahead < 0) {
+            throw new IllegalArgumentException("invalid parameters");
+        }
+    }
+
+    /**
+     * @param name : one of NAMES
+     * @param value : the new value of the parameter
+     * @return a copy of these parameters with one changed
+     */
+    public Params with(String name, String value) {
+        return with(Map.of(name, value));
+    }
+
+    /**
+     * @param changes : the new values of some of NAMES, by name
+     * @return a copy of these parameters with those changed, validated once they are all applied
+     */
+    public Params with(Map<String, String> changes) {
+        for (String name : changes.keySet()) {
+            if (!Arrays.asList(NAMES).contains(name)) {
+                throw new IllegalArgumentException("unknown parameter: " + name);
+            }
+        }
+        return new Params(this, changes);
+    }
+
+    /**
+     * @param name : one of NAMES
+     * @return the value of the parameter
+     */
+    public Number get(String name) {
+        switch (name) {
+            case "carousel-size":
+                return carouselSize;
+            case "producer-max-sleep":
+                return producerMaxSleep;
+            case "consumer-min-sleep":
+                return consumerMinSleep;
+            case "consumer-max-sleep":
+                return consumerMaxSleep;
+            case "drive-time":
+                return driveTime;
+            case "shuttle-time":
+                return shuttleTime;
+            case "inspect-time":
+                return inspectTime;
+            case "defect-prob":
+                return defectProb;
+            case "bypass-capacity":
+                return bypassCapacity;
+            case "inspection-bays":
+                return inspectionBays;
+            case "shuttle-capacity":
+                return shuttleCapacity;
+            case "shuttle-max-hold":
+                return shuttleMaxHold;
+            case "shuttle-lookahead":
+                return shuttleLookahead;
+            default:
+                throw new IllegalArgumentException("unknown parameter: " + name);
+        }
+    }
+
+    /**
+     * Read the parameters given on a command line as --NAME=VALUE, ignoring every other argument.
+     *
+     * @param args : the command line
+     * @return a copy of these parameters with the ones given changed
+     */
+    public Params withArgs(String[] args) {
+        Map<String, String> changes = new HashMap<>();
+        for (String arg : args) {
+            for (String name : NAMES) {
+                if (arg.startsWith("--" + name + "=")) {
+                    changes.put(name, arg.substring(name.length() + 3));
+                }
+            }
+        }
+        return with(changes);
+    }
+
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (String name : NAMES) {
+            s.append(s.length() == 0 ? "" : " ").append(name).append('=').append(get(name));
+        }
+        return s.toString();
+    }
 }
@@ -1,4 +1,5 @@
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A producer continually tries, at varying time intervals, 
@@ -9,12 +10,39 @@ public class Producer extends VaccineHandlingThread {
     // the carousel to which the producer puts vials
     protected Carousel carousel;
 
+    // where this producer's vials come from
+    protected VialFactory vials;
+
+    // decides how long to wait between vials
+    protected SplittableRandom random;
+
+    // the configuration of the run
+    protected final Params params;
+
+    // the number of vials this producer has put on the carousel
+    protected volatile long count = 0;
+
+    // the number of vials produced, and the time spent producing vs waiting for compartment 0
+    protected final LongAdder produced = Metrics.counter("vials produced");
+    protected final Metrics.Activity activity;
+
     /**
      * Create a new producer to feed a given carousel.
      */
     Producer(Carousel carousel) {
-    	super();
+        this(carousel, SimulationContext.current());
+    }
+
+    /**
+     * Create a new producer to feed a given carousel in a run, taking its randomness from a stream of its own.
+     */
+    Producer(Carousel carousel, SimulationContext context) {
+    	super(context);
         this.carousel = carousel;
+        this.random = context.nextRandom();
+        this.params = context.getParams();
+        this.vials = new VialFactory(context, random.split());
+        this.activity = Metrics.activity("Producer " + carousel.getName());
     }
 
     /**
@@ -24,17 +52,30 @@ public class Producer extends VaccineHandlingThread {
         while (!isInterrupted()) {
             try {
                 // put a new vial in the carousel
-                Vial vial = Vial.getInstance();
+                Vial vial = vials.newVial();
+                long waitStart = System.nanoTime();
                 carousel.putVial(vial, 0);
+                context.vialEntered();
+                count++;
+                long busyStart = System.nanoTime();
+                activity.waiting(busyStart - waitStart);
+                produced.increment();
 
                 // sleep for a bit....
-                Random random = new Random();
-                int sleepTime = random.nextInt(Params.PRODUCER_MAX_SLEEP);
+                int sleepTime = random.nextInt(params.producerMaxSleep);
                 Thread.sleep(sleepTime);
+                activity.busy(System.nanoTime() - busyStart);
             } catch (InterruptedException e) {
                 this.interrupt();
             }
         }
         System.out.println("Producer terminated");
     }
+
+    /**
+     * @return the number of vials this producer has put on the carousel
+     */
+    public long getProduced() {
+        return count;
+    }
 }
@@ -0,0 +1,44 @@
+import java.util.SplittableRandom;
+
+/**
+ * The randomness of one simulation run. Every component that makes random choices takes its own stream, split in
+ * turn from a root stream seeded by the run's seed, so the same seed, with the components created in the same
+ * order, gives the same arrival, consumption and defect sequences.
+ */
+public class RandomStreams {
+
+    // the seed of the run
+    private final long seed;
+
+    // the stream every component's stream is split from
+    private final SplittableRandom root;
+
+    /**
+     * Create the streams for a run with a given seed.
+     */
+    public RandomStreams(long seed) {
+        this.seed = seed;
+        this.root = new SplittableRandom(seed);
+    }
+
+    /**
+     * Create the streams for a run with a seed of its own.
+     */
+    public RandomStreams() {
+        this(System.nanoTime() ^ Double.doubleToLongBits(Math.random()));
+    }
+
+    /**
+     * @return the seed, to reproduce the run
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return a new, independent stream for one component
+     */
+    public synchronized SplittableRandom next() {
+        return root.split();
+    }
+}
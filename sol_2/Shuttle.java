@@ -1,4 +1,6 @@
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A producer continually tries, at varying time intervals,
@@ -7,11 +9,20 @@ import java.util.Random;
 public class Shuttle extends VaccineHandlingThread {
 
     // the carousel to which the producer puts vials
-    final private static String indentation = "                  ";
     protected Carousel carousel;
-    protected InspectionBay inspectionBay;
-    protected Vial vial;
+    protected InspectionPool inspectionBays;
     protected Position position;
+
+    // the defective vials on board, up to the shuttle's capacity
+    protected final List<Vial> load = new ArrayList<>();
+
+    // the round trips made, the vials carried on them, and the time spent travelling vs waiting at either end
+    protected final LongAdder trips = Metrics.counter("shuttle trips");
+    protected final LongAdder carried = Metrics.counter("shuttle vials carried");
+    protected final Metrics.Activity activity;
+
+    // the configuration of the run
+    protected final Params params;
     private enum Position {
         CAROUSEL,
         INSPECTION_BAY
@@ -21,11 +32,27 @@ public class Shuttle extends VaccineHandlingThread {
      * Create a new producer to feed a given carousel.
      */
     Shuttle(Carousel carousel, InspectionBay inspectionBay) {
-        super();
+        this(carousel, inspectionBay, SimulationContext.current());
+    }
+
+    /**
+     * Create a new shuttle between a carousel and an inspection bay in a run.
+     */
+    Shuttle(Carousel carousel, InspectionBay inspectionBay, SimulationContext context) {
+        this(carousel, new InspectionPool(new InspectionBay[] { inspectionBay }, InspectionPool.Policy.ROUND_ROBIN),
+                context);
+    }
+
+    /**
+     * Create a new shuttle between a carousel and a pool of inspection bays in a run.
+     */
+    Shuttle(Carousel carousel, InspectionPool inspectionBays, SimulationContext context) {
+        super(context);
         this.carousel = carousel;
-        this.inspectionBay = inspectionBay;
-        this.vial = null;
+        this.params = context.getParams();
+        this.inspectionBays = inspectionBays;
         position = Position.CAROUSEL;
+        this.activity = Metrics.activity("Shuttle " + carousel.getName());
     }
 
     private void togglePosition() {
@@ -45,6 +72,17 @@ public class Shuttle extends VaccineHandlingThread {
      *   2. At the carousel to return a defective vial that has been inspected and tagged
      *   3. At the shuttle bay delivering a new defective vial for inspection and tagging
      *   4. At the shuttle waiting for a the defective vial to be inspected and tagged
+     *
+     * The shuttle carries up to params.shuttleCapacity vials. Once it has picked up the first, it waits at the
+     * carousel for more until it is full or params.shuttleMaxHold milliseconds have passed, then leaves with what
+     * it has. Carrying several vials on one trip lets it keep up when defective vials arrive faster than it can
+     * make round trips, at the price of the first vial on board waiting for the others.
+     *
+     * With params.shuttleLookahead set, the shuttle looks that many compartments ahead of compartment 3 while it
+     * holds, and leaves as soon as no defective vial is on its way there instead of waiting out the hold time.
+     * Lookahead only cuts short a multi-vial hold: it does not send the shuttle back to the carousel early or
+     * otherwise pre-position it, so it changes nothing unless shuttleCapacity is above 1 and shuttleMaxHold
+     * above 0, which the defaults are not.
      */
     public void run() {
         while (!isInterrupted()) {
@@ -53,23 +91,52 @@ public class Shuttle extends VaccineHandlingThread {
                     // When at the carousel the shuttle will always be empty
 
                     // Get the defective vial from compartment 3 of the carousel. . .
-                    vial = carousel.getVialForInspection(2);
+                    long waitStart = System.nanoTime();
+                    pickUp(carousel.getVialForInspection(2));
+
+                    // . . . and any more that arrive before the shuttle is full or the hold time is up, or, when
+                    // looking ahead, before no more are on their way. . .
+                    long holdUntil = System.currentTimeMillis() + params.shuttleMaxHold;
+                    while (load.size() < params.shuttleCapacity) {
+                        long left = holdUntil - System.currentTimeMillis();
+                        Vial vial;
+                        if (left <= 0) {
+                            vial = null;
+                        } else if (params.shuttleLookahead > 0 &&
+                                !carousel.isInspectionComing(2, params.shuttleLookahead)) {
+                            vial = carousel.tryGetVialForInspection(2);
+                        } else {
+                            vial = carousel.getVialForInspection(2, left);
+                        }
+                        if (vial == null) {
+                            break;
+                        }
+                        pickUp(vial);
+                    }
+                    long busyStart = System.nanoTime();
+                    activity.waiting(busyStart - waitStart);
 
-                    // . . . Then take it to the inspection bay
-                    System.out.println(indentation + vial + " [ c3 -> S  ]");
-                    sleep(Params.SHUTTLE_TIME);
+                    // . . . Then take them to the inspection bays
+                    sleep(params.shuttleTime);
+                    activity.busy(System.nanoTime() - busyStart);
                     togglePosition();
                 } else if (position.equals(Position.INSPECTION_BAY)) {
-                    // When at the inspection bay the shuttle will always contain a defective vial that has not
+                    // When at the inspection bay the shuttle will always contain defective vials that have not
                     // yet been inspected and tagged
 
-                    // Put the defective vial in the inspection bay. . .
-                    inspectionBay.putVial(vial);
-                    System.out.println(indentation + vial + " [  S -> I  ]");
-                    vial = null;
+                    // Put each defective vial in a free inspection bay, in the order they were picked up. . .
+                    long waitStart = System.nanoTime();
+                    while (!load.isEmpty()) {
+                        inspectionBays.putVial(load.get(0));
+                        Trace.record(TraceEvent.SHUTTLE_DELIVERY, load.remove(0));
+                    }
+                    long busyStart = System.nanoTime();
+                    activity.waiting(busyStart - waitStart);
 
-                    // . . . Then head back to the carousel to get the next defective vial
-                    sleep(Params.SHUTTLE_TIME);
+                    // . . . Then head back to the carousel to get the next defective vials
+                    sleep(params.shuttleTime);
+                    activity.busy(System.nanoTime() - busyStart);
+                    trips.increment();
                     togglePosition();
                 }
             } catch (InterruptedException e) {
@@ -78,4 +145,13 @@ public class Shuttle extends VaccineHandlingThread {
         }
         System.out.println("Shuttle terminated");
     }
+
+    /**
+     * Put a vial taken from the carousel on board.
+     */
+    private void pickUp(Vial vial) {
+        load.add(vial);
+        carried.increment();
+        Trace.record(TraceEvent.SHUTTLE_PICKUP, vial, 3, 0, carousel.getName());
+    }
 }
@@ -1,3 +1,6 @@
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+
 /**
  * The main class for the vaccine fill/finish system simulator.
  */
@@ -5,61 +8,155 @@
 public class Sim {
     /**
      * The main method to run the simulator.
+     *
+     * @param args : optionally --carousel=lock to run the main carousel on a
+     *             ReentrantLock with per-compartment conditions, or
+     *             --carousel=cas to run it without a lock, or --carousel=bypass to divert
+     *             defective vials at c3 into a bypass lane of bypass-capacity vials; optionally
+     *             --threads=virtual to run every component on a virtual thread; optionally
+     *             --trace=sync to print the trace from the components' own threads, or
+     *             --trace=off to turn it off; optionally --event-log=FILE to log every
+     *             event to a binary log that EventLogReader can print; optionally
+     *             --seed=N to reproduce the random choices of an earlier run; optionally
+     *             --metrics-every=S to print the component counters every S seconds; optionally
+     *             --profile-monitors to count wakeups and blocked/held time in the monitors; optionally
+     *             --drain=MS for the longest time to let the vials drain out of the plant when it stops
+     *             (default 10000); optionally --bay-policy=round-robin|least-busy for how the shuttle
+     *             chooses one of the free inspection bays (default round-robin); optionally --NAME=VALUE
+     *             for any of Params.NAMES, e.g. --inspect-time=3000. Entering a line prints the latency
+     *             histograms as they stand
      */
     public static void main(String[] args) {
-        
+
+        // choose the main carousel implementation
+        String carouselMode = "monitor";
+        String threadMode = "platform";
+        InspectionPool.Policy bayPolicy = InspectionPool.Policy.ROUND_ROBIN;
+        long drainMillis = 10000;
+        RandomStreams random = new RandomStreams();
+        for (String arg : args) {
+            if (arg.startsWith("--carousel=")) {
+                carouselMode = arg.substring("--carousel=".length());
+            } else if (arg.startsWith("--threads=")) {
+                threadMode = arg.substring("--threads=".length());
+            } else if (arg.startsWith("--seed=")) {
+                random = new RandomStreams(Long.parseLong(arg.substring("--seed=".length())));
+            } else if (arg.startsWith("--trace=")) {
+                Trace.setMode(Trace.Mode.valueOf(arg.substring("--trace=".length()).toUpperCase()));
+            } else if (arg.startsWith("--event-log=")) {
+                Trace.openEventLog(arg.substring("--event-log=".length()));
+            } else if (arg.startsWith("--metrics-every=")) {
+                Metrics.startReporter(Long.parseLong(arg.substring("--metrics-every=".length())));
+            } else if (arg.equals("--profile-monitors")) {
+                MonitorProfile.setEnabled(true);
+            } else if (arg.startsWith("--bay-policy=")) {
+                bayPolicy = InspectionPool.Policy.valueOf(
+                        arg.substring("--bay-policy=".length()).toUpperCase().replace('-', '_'));
+            } else if (arg.startsWith("--drain=")) {
+                drainMillis = Long.parseLong(arg.substring("--drain=".length()));
+            }
+        }
+        ThreadFactory threads = ComponentThreads.forMode(threadMode);
+        Params params = Params.DEFAULT.withArgs(args);
+        SimulationContext context = new SimulationContext(random, params);
+        context.bind();
+
     	// Components of the main carousel subsystem
-        Carousel mainCarousel = new Carousel();
-        CarouselDrive mainDriver = new CarouselDrive(mainCarousel);
-        Producer producer = new Producer(mainCarousel);
-        Consumer distributor = new Consumer(mainCarousel);
+        Carousel mainCarousel = newCarousel(carouselMode, params);
+        CarouselDrive mainDriver = new CarouselDrive(mainCarousel, context);
+        Producer producer = new Producer(mainCarousel, context);
+        Consumer distributor = new Consumer(mainCarousel, context);
 
         // Components of the destroyer carousel subsystem
         Carousel destroyerCarousel = new DestroyerCarousel();
-        Consumer destroyer = new Consumer(destroyerCarousel);
-        CarouselDrive destroyerDriver = new CarouselDrive(destroyerCarousel);
+        Consumer destroyer = new Consumer(destroyerCarousel, context);
+        CarouselDrive destroyerDriver = new CarouselDrive(destroyerCarousel, context);
 
         // Components of the shuttle subsystem
-        InspectionBay inspectionBay = new InspectionBay(destroyerCarousel);
-        Shuttle shuttle = new Shuttle(mainCarousel, inspectionBay);
+        InspectionPool inspectionBays = new InspectionPool(params.inspectionBays, bayPolicy, destroyerCarousel,
+                context);
+        Shuttle shuttle = new Shuttle(mainCarousel, inspectionBays, context);
 
+        // the producer stops first; the rest stop downstream of it, once the vials have drained
+        Supervisor supervisor = new Supervisor(context);
+        supervisor.addSource(producer);
+        supervisor.add(mainDriver);
+        supervisor.add(distributor);
+        supervisor.add(shuttle);
+        for (InspectionBay inspectionBay : inspectionBays.getBays()) {
+            supervisor.add(inspectionBay);
+        }
+        supervisor.add(destroyerDriver);
+        supervisor.add(destroyer);
 
+        // print the latency histograms as they stand whenever a line is entered
+        Thread latencyOnDemand = new Thread(() -> printLatencyOnDemand(context.getStats()),
+                "LatencyOnDemand");
+        latencyOnDemand.setDaemon(true);
+        latencyOnDemand.start();
 
-        // start threads
-        distributor.start();
-        producer.start();
-        shuttle.start();
-        inspectionBay.start();
-        destroyer.start();
-        destroyerDriver.start();
-        mainDriver.start();
-
-        // check all threads still live
-        while (distributor.isAlive() &&
-               producer.isAlive() &&
-               shuttle.isAlive() &&
-                inspectionBay.isAlive() &&
-                destroyer.isAlive() &&
-                mainDriver.isAlive() &&
-                destroyerDriver.isAlive())
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException e) {
-                VaccineHandlingThread.terminate(e);
-            }
-
-        // interrupt other threads
-        distributor.interrupt();
-        producer.interrupt();
-        shuttle.interrupt();
-        inspectionBay.interrupt();
-        mainDriver.interrupt();
-        destroyerDriver.interrupt();
-        destroyer.interrupt();
+        // start threads, and wait until one of them fails or stops
+        supervisor.start(threads);
+        supervisor.awaitEnd(0);
 
+        // stop the threads, letting the vials drain out first
+        supervisor.shutdown(drainMillis, 1000);
 
+        Trace.closeEventLog();
+        Trace.flush();
         System.out.println("Sim terminating");
-        System.out.println(VaccineHandlingThread.getTerminateException());
+        System.out.print(supervisor.report());
+        System.out.println(String.format("produced %d, distributed %d, destroyed %d",
+                producer.getProduced(), distributor.getConsumed(), destroyer.getConsumed()));
+        System.out.print(inspectionBays.report());
+        System.out.println("seed: " + random.getSeed());
+        System.out.print(context.getStats().report());
+        System.out.print(Metrics.report(Map.of(), supervisor.getRunMillis() / 1000.0));
+        if (MonitorProfile.isEnabled()) {
+            System.out.print(MonitorProfile.report());
+        }
+        if (mainCarousel instanceof LockCarousel) {
+            System.out.println(((LockCarousel) mainCarousel).wakeupSummary());
+        }
         System.exit(0);
     }
+
+    /**
+     * Print the latency histograms each time a line is read from standard input.
+     *
+     * @param stats : the latencies of the run
+     */
+    private static void printLatencyOnDemand(LatencyStats stats) {
+        try {
+            java.io.BufferedReader in = new java.io.BufferedReader(new java.io.InputStreamReader(System.in));
+            while (in.readLine() != null) {
+                System.out.print(stats.report());
+            }
+        } catch (java.io.IOException e) {
+            // no standard input to read from
+        }
+    }
+
+    /**
+     * Create the main carousel for a given mode
+     *
+     * @param mode : "monitor" for the synchronized carousel, "lock" for the condition based one,
+     *             "cas" for the lock-free one, "bypass" for the synchronized one with a bypass lane
+     * @param params : the configuration of the run, for the number of compartments and the bypass capacity
+     * @return a new, empty carousel
+     */
+    static Carousel newCarousel(String mode, Params params) {
+        switch (mode) {
+            case "monitor":
+                return new Carousel(params.carouselSize);
+            case "lock":
+                return new LockCarousel(params.carouselSize);
+            case "cas":
+                return new CasCarousel(params.carouselSize);
+            case "bypass":
+                return new BypassCarousel(params.carouselSize, params.bypassCapacity);
+            default:
+                throw new IllegalArgumentException("unknown carousel: " + mode);
+        }
+    }
 }
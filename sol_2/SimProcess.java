@@ -0,0 +1,19 @@
+/**
+ * A component of the plant run by the discrete-event engine instead of a thread. Each step does what the
+ * component's thread would do up to its next sleep, without blocking, and says how long it would then sleep.
+ */
+public interface SimProcess {
+
+    // returned by step() when the component cannot go on until the plant changes
+    long BLOCKED = -1;
+
+    /**
+     * Carry out the next action of the component.
+     *
+     * @return the simulated time in milliseconds until the component's next step, or BLOCKED if it has to wait
+     *         for another component
+     * @throws OverloadException
+     *             if a vial is rotated beyond the final compartment.
+     */
+    long step() throws OverloadException;
+}
@@ -0,0 +1,242 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * The state of one simulation run: its configuration, its randomness, the vial IDs it has handed out, why it
+ * terminated, and its clock and latency statistics. Every component belongs to one context, and binds it to the
+ * thread it runs on, so several plants can run side by side in one process without sharing any of this.
+ *
+ * The context also signals the end of the run, as soon as a component fails or stops or the run is ended, and
+ * counts the vials in the plant so that a Supervisor can let them drain before stopping the components.
+ *
+ * Code that is not given a context uses the one current on its thread: the context bound to the thread, if any,
+ * otherwise one shared by the whole process.
+ */
+public class SimulationContext {
+
+    // the context of the threads that have none bound, with the default configuration and the wall clock
+    private static final SimulationContext shared =
+            new SimulationContext(new RandomStreams(), Params.DEFAULT, System::currentTimeMillis);
+
+    // the context bound to each thread, if any
+    private static final ThreadLocal<SimulationContext> bound = new ThreadLocal<>();
+
+    // the configuration and randomness of the run
+    protected final Params params;
+    protected final RandomStreams random;
+
+    // the time in milliseconds, and the latencies measured by it
+    protected final LongSupplier clock;
+    protected final LatencyStats stats;
+
+    // the first ID of the next block of vial IDs to hand out
+    private final AtomicInteger nextIdBlock = new AtomicInteger(1);
+
+    // if the run terminates, this exception provides a reason
+    private volatile Exception terminateException = null;
+
+    // released when the run ends, and the thread of the component whose failure or stopping ended it, if one did
+    private final CountDownLatch ended = new CountDownLatch(1);
+    private volatile String endedBy = null;
+
+    // the vials that have entered the plant and not yet left it
+    private long inFlight = 0;
+
+    /**
+     * Create the context of a new run.
+     *
+     * @param random : where the components' random choices come from
+     * @param params : the configuration of the run
+     * @param clock : where the time in milliseconds comes from, e.g. a simulated clock
+     */
+    public SimulationContext(RandomStreams random, Params params, LongSupplier clock) {
+        this.random = random;
+        this.params = params;
+        this.clock = clock;
+        this.stats = new LatencyStats(clock);
+    }
+
+    /**
+     * Create the context of a new run on the wall clock.
+     */
+    public SimulationContext(RandomStreams random, Params params) {
+        this(random, params, System::currentTimeMillis);
+    }
+
+    /**
+     * @return the context of the code running on this thread
+     */
+    public static SimulationContext current() {
+        SimulationContext context = bound.get();
+        return context == null ? shared : context;
+    }
+
+    /**
+     * Make this the context of the code running on this thread, until unbind() is called.
+     */
+    public void bind() {
+        bound.set(this);
+    }
+
+    /**
+     * Go back to the shared context on this thread.
+     */
+    public static void unbind() {
+        bound.remove();
+    }
+
+    /**
+     * @return the configuration of the run
+     */
+    public Params getParams() {
+        return params;
+    }
+
+    /**
+     * @return a new, independent random stream for one component
+     */
+    public SplittableRandom nextRandom() {
+        return random.next();
+    }
+
+    /**
+     * @return the seed, to reproduce the run
+     */
+    public long getSeed() {
+        return random.getSeed();
+    }
+
+    /**
+     * @return the time in milliseconds
+     */
+    public long now() {
+        return clock.getAsLong();
+    }
+
+    /**
+     * @return the latencies of the run
+     */
+    public LatencyStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Take a block of vial IDs, unique within the run.
+     *
+     * @param size : the number of IDs in the block
+     * @return the first ID of the block
+     */
+    public int takeIdBlock(int size) {
+        return nextIdBlock.getAndAdd(size);
+    }
+
+    /**
+     * Record why the run terminated, and end it. The first reason given is kept.
+     *
+     * @param exception : an Exception detailing the reason for termination
+     */
+    public synchronized void terminate(Exception exception) {
+        if (terminateException == null) {
+            terminateException = exception;
+        }
+        if (endedBy == null && ended.getCount() > 0) {
+            endedBy = Thread.currentThread().getName();
+        }
+        ended.countDown();
+    }
+
+    /**
+     * End the run normally, e.g. because it has done what was asked of it.
+     */
+    public void end() {
+        ended.countDown();
+    }
+
+    /**
+     * Record that a component has stopped. The first component to stop ends the run.
+     *
+     * @param component : the component that stopped
+     */
+    public synchronized void stopped(VaccineHandlingThread component) {
+        if (endedBy == null && ended.getCount() > 0) {
+            endedBy = component.getName();
+        }
+        ended.countDown();
+    }
+
+    /**
+     * Wait for the run to end.
+     *
+     * @param millis : the longest time to wait, or 0 to wait for ever
+     * @return true if the run has ended, false if the time ran out first
+     * @throws InterruptedException
+     *            if the thread executing is interrupted.
+     */
+    public boolean awaitEnd(long millis) throws InterruptedException {
+        if (millis == 0) {
+            ended.await();
+            return true;
+        }
+        return ended.await(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the name of the component whose failure or stopping ended the run, or null if none did
+     */
+    public String getEndedBy() {
+        return endedBy;
+    }
+
+    /**
+     * Count a vial into the plant.
+     */
+    public synchronized void vialEntered() {
+        inFlight++;
+    }
+
+    /**
+     * Count a vial out of the plant.
+     */
+    public synchronized void vialLeft() {
+        if (--inFlight == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of vials in the plant
+     */
+    public synchronized long getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Wait for every vial in the plant to leave it.
+     *
+     * @param millis : the longest time to wait
+     * @return true if the plant is empty, false if the time ran out first
+     * @throws InterruptedException
+     *            if the thread executing is interrupted.
+     */
+    public synchronized boolean awaitDrained(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        while (inFlight > 0) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                return false;
+            }
+            wait(left);
+        }
+        return true;
+    }
+
+    /**
+     * @return the reason for the termination, or null if the run has not terminated
+     */
+    public Exception getTerminateException() {
+        return terminateException;
+    }
+}
@@ -0,0 +1,191 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Starts the components of a run and stops them again. The supervisor does not poll them: it waits on the run's
+ * SimulationContext, which is told at once when a component fails or stops or the run is ended. It then shuts the
+ * plant down in order: first the sources, so that no more vials enter it; then, if every other component is still
+ * running, it waits for the vials in the plant to drain out of it; and then it interrupts the other components in
+ * the order they were added, waiting for each to stop. How long the drain and the stop took are kept for the report.
+ */
+public class Supervisor {
+
+    // the run the components belong to
+    protected final SimulationContext context;
+
+    // the components that put vials into the plant, stopped first
+    protected final List<VaccineHandlingThread> sources = new ArrayList<>();
+
+    // the other components, in the order they are stopped
+    protected final List<VaccineHandlingThread> components = new ArrayList<>();
+
+    // when the components were started, when the run ended, and when the drain and the stop were over
+    private long startedAt = 0;
+    private long endedAt = 0;
+    private long drainedAt = 0;
+    private long stoppedAt = 0;
+
+    // whether the plant emptied before the components were stopped, and the vials still in it after
+    private boolean drained = false;
+    private long leftInFlight = 0;
+
+    // the components that did not stop when asked
+    private final List<String> stuck = new ArrayList<>();
+
+    /**
+     * Create a supervisor for the components of a run.
+     */
+    public Supervisor(SimulationContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Supervise a component that puts vials into the plant.
+     */
+    public void addSource(VaccineHandlingThread source) {
+        sources.add(source);
+    }
+
+    /**
+     * Supervise a component. Components are stopped in the order they are added.
+     */
+    public void add(VaccineHandlingThread component) {
+        components.add(component);
+    }
+
+    /**
+     * Start every component, the sources last.
+     *
+     * @param threads : where the components' threads come from
+     */
+    public void start(ThreadFactory threads) {
+        startedAt = System.currentTimeMillis();
+        for (VaccineHandlingThread component : components) {
+            component.start(threads);
+        }
+        for (VaccineHandlingThread source : sources) {
+            source.start(threads);
+        }
+    }
+
+    /**
+     * Wait for the run to end: for a component to fail or stop, or for the run to be ended. If the time runs out
+     * first, the run ends then.
+     *
+     * @param millis : the longest time to wait, or 0 to wait for ever
+     * @return true if the run ended by itself, false if the time ran out first
+     */
+    public boolean awaitEnd(long millis) {
+        boolean ended;
+        try {
+            ended = context.awaitEnd(millis);
+            if (!ended) {
+                // the supervisor ends the run itself
+                context.end();
+            }
+        } catch (InterruptedException e) {
+            context.terminate(e);
+            ended = true;
+        }
+        endedAt = System.currentTimeMillis();
+        return ended;
+    }
+
+    /**
+     * Stop the sources, let the plant drain if it can, then stop the other components in order.
+     *
+     * @param drainMillis : the longest time to wait for the plant to drain, or 0 not to wait
+     * @param joinMillis : the longest time to wait for each component to stop
+     */
+    public void shutdown(long drainMillis, long joinMillis) {
+        if (endedAt == 0) {
+            endedAt = System.currentTimeMillis();
+        }
+        try {
+            stop(sources, joinMillis);
+
+            // a plant with a component down cannot drain
+            if (drainMillis > 0 && components.stream().allMatch(VaccineHandlingThread::isAlive)) {
+                context.awaitDrained(drainMillis);
+            }
+            drainedAt = System.currentTimeMillis();
+            leftInFlight = Math.max(0, context.getInFlight());
+            drained = leftInFlight == 0;
+
+            stop(components, joinMillis);
+        } catch (InterruptedException e) {
+            context.terminate(e);
+        }
+        if (drainedAt == 0) {
+            drainedAt = System.currentTimeMillis();
+        }
+        stoppedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Interrupt some components, waiting for each to stop in turn.
+     */
+    private void stop(List<VaccineHandlingThread> group, long joinMillis) throws InterruptedException {
+        for (VaccineHandlingThread component : group) {
+            component.interrupt();
+            component.join(joinMillis);
+            if (component.isAlive()) {
+                stuck.add(component.getName());
+            }
+        }
+    }
+
+    /**
+     * @return how long the components ran for, in milliseconds, up to the end of the run
+     */
+    public long getRunMillis() {
+        return endedAt - startedAt;
+    }
+
+    /**
+     * @return how long the shutdown took, in milliseconds, from the end of the run until every component stopped
+     */
+    public long getShutdownMillis() {
+        return stoppedAt - endedAt;
+    }
+
+    /**
+     * @return how long the drain took, in milliseconds, including stopping the sources
+     */
+    public long getDrainMillis() {
+        return drainedAt - endedAt;
+    }
+
+    /**
+     * @return true if the plant was empty when the components were stopped
+     */
+    public boolean isDrained() {
+        return drained;
+    }
+
+    /**
+     * @return the number of vials still in the plant when the components were stopped
+     */
+    public long getLeftInFlight() {
+        return leftInFlight;
+    }
+
+    /**
+     * @return the components that did not stop when asked
+     */
+    public List<String> getStuck() {
+        return stuck;
+    }
+
+    /**
+     * @return a summary of why and how the run ended
+     */
+    public String report() {
+        return String.format("ended by %s after %d ms: %s%nshutdown %d ms (drain %d ms, %s, %d vials left in the " +
+                        "plant), still running: %s%n",
+                context.getEndedBy() == null ? "the supervisor" : context.getEndedBy(), getRunMillis(),
+                context.getTerminateException(), getShutdownMillis(), getDrainMillis(),
+                drained ? "drained" : "not drained", leftInFlight, stuck);
+    }
+}
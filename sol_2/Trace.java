@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The output trace of the system. Components record compact events (kind, vial, compartments, time) into a
+ * lock-free ring buffer instead of building strings and printing while they hold a carousel's monitor. A background
+ * writer drains the buffer in order and writes the usual human-readable lines, and appends each event to the binary
+ * EventLog if there is one. For benchmark runs the printed trace can be turned off, so that recording an event costs
+ * nothing unless there is an event log. Every event also stamps the vial's lifecycle for LatencyStats.
+ */
+public class Trace {
+
+    /**
+     * How events are handled.
+     */
+    public enum Mode {
+        // record into the ring buffer and format on the writer thread
+        ASYNC,
+        // format and print in the thread that records the event, as the system used to
+        SYNC,
+        // print nothing
+        OFF
+    }
+
+    // the number of events the ring buffer holds; a power of two
+    private static final int CAPACITY = 1 << 14;
+    private static final int MASK = CAPACITY - 1;
+
+    // how many times a recorder spins on a full buffer before it parks between tries instead
+    private static final int SPINS = 100;
+
+    // the event slots. A slot is free for the event with sequence number n when seq[slot] == n,
+    // and holds that event once seq[slot] == n + 1
+    private static final AtomicLongArray seq = new AtomicLongArray(CAPACITY);
+    private static final TraceEvent[] events = new TraceEvent[CAPACITY];
+    private static final int[] ids = new int[CAPACITY];
+    private static final int[] flags = new int[CAPACITY];
+    private static final int[] froms = new int[CAPACITY];
+    private static final int[] tos = new int[CAPACITY];
+    private static final String[] carousels = new String[CAPACITY];
+    private static final long[] times = new long[CAPACITY];
+
+    // the sequence number of the next event to record
+    private static final AtomicLong tail = new AtomicLong();
+
+    // the sequence number of the first event not yet written out
+    private static volatile long written = 0;
+
+    private static volatile Mode mode = Mode.ASYNC;
+    private static volatile Thread writer;
+
+    // where events are logged in binary, if anywhere
+    private static volatile EventLog eventLog;
+
+    static {
+        for (int s = 0; s < CAPACITY; s++) {
+            seq.set(s, s);
+        }
+    }
+
+    /**
+     * @param newMode : how events are handled from now on
+     */
+    public static synchronized void setMode(Mode newMode) {
+        flush();
+        mode = newMode;
+    }
+
+    /**
+     * Log every event to a binary event log from now on, as well as printing the trace.
+     *
+     * @param log : the event log, or null to stop logging
+     */
+    public static synchronized void setEventLog(EventLog log) {
+        flush();
+        eventLog = log;
+    }
+
+    /**
+     * Start logging every event to a new binary event log file.
+     *
+     * @param path : the file to write the log to
+     * @throws UncheckedIOException
+     *             if the file cannot be created.
+     */
+    public static void openEventLog(String path) {
+        try {
+            setEventLog(new EventLog(Paths.get(path)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write out every event recorded so far, then stop logging and close the event log, if there is one.
+     */
+    public static synchronized void closeEventLog() {
+        EventLog log = eventLog;
+        setEventLog(null);
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                System.err.println("event log failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * @return how events are handled
+     */
+    public static Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Record an event involving a vial.
+     *
+     * @param event : the kind of event
+     * @param vial : the vial
+     * @param from : the compartment the vial moved from, counting from 1, or 0
+     * @param to : the compartment the vial moved to, counting from 1, or 0
+     * @param carousel : the name of the carousel, or null
+     */
+    public static void record(TraceEvent event, Vial vial, int from, int to, String carousel) {
+        LatencyStats.current().observe(event, vial, to);
+
+        Mode m = mode;
+        EventLog log = eventLog;
+        if (m == Mode.OFF && log == null) {
+            return;
+        }
+        if (m == Mode.SYNC) {
+            if (event.isPrinted()) {
+                StringBuilder line = new StringBuilder(64);
+                event.format(line, vial.getId(), vial.getFlags(), from, to, carousel);
+                System.out.println(line);
+            }
+            if (log != null) {
+                append(log, event, vial.getId(), vial.getFlags(), from, to, carousel, System.nanoTime());
+            }
+            return;
+        }
+
+        // claim a slot, waiting for the writer if the buffer is full: the caller may hold a monitor, so after a
+        // short spin it parks rather than burning a core while the writer catches up
+        long n = tail.getAndIncrement();
+        int s = (int) (n & MASK);
+        for (int spins = 0; seq.get(s) != n; spins++) {
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(50_000);
+            }
+        }
+        events[s] = event;
+        ids[s] = vial.getId();
+        flags[s] = vial.getFlags();
+        froms[s] = from;
+        tos[s] = to;
+        carousels[s] = carousel;
+        times[s] = System.nanoTime();
+        seq.lazySet(s, n + 1);
+        startWriter();
+    }
+
+    /**
+     * Record an event involving a vial that did not move between compartments.
+     */
+    public static void record(TraceEvent event, Vial vial) {
+        record(event, vial, 0, 0, null);
+    }
+
+    /**
+     * Wait until every event recorded so far has been written out.
+     */
+    public static void flush() {
+        long target = tail.get();
+        while (written < target && writer != null) {
+            LockSupport.parkNanos(100_000);
+        }
+        System.out.flush();
+    }
+
+    /**
+     * Start the writer thread the first time an event is recorded.
+     */
+    private static void startWriter() {
+        if (writer == null) {
+            synchronized (Trace.class) {
+                if (writer == null) {
+                    Thread t = new Thread(Trace::drain, "Trace");
+                    t.setDaemon(true);
+                    t.start();
+                    writer = t;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write out events as they are recorded, in the order they were recorded. If an event cannot be printed, the
+     * trace is turned off and the writer goes on freeing slots, so that recorders never wait for it in vain.
+     */
+    private static void drain() {
+        StringBuilder lines = new StringBuilder(4096);
+        long n = 0;
+        while (true) {
+            int s = (int) (n & MASK);
+            if (seq.get(s) != n + 1) {
+                // nothing more recorded yet
+                write(lines, n);
+                LockSupport.parkNanos(1_000_000);
+                continue;
+            }
+            try {
+                if (mode != Mode.OFF && events[s].isPrinted()) {
+                    events[s].format(lines, ids[s], flags[s], froms[s], tos[s], carousels[s]);
+                    lines.append(System.lineSeparator());
+                }
+                EventLog log = eventLog;
+                if (log != null) {
+                    append(log, events[s], ids[s], flags[s], froms[s], tos[s], carousels[s], times[s]);
+                }
+            } catch (RuntimeException e) {
+                failed(lines, e);
+            }
+            carousels[s] = null;
+            seq.lazySet(s, n + CAPACITY);
+            n++;
+            if (lines.length() > 3500) {
+                write(lines, n);
+            }
+        }
+    }
+
+    /**
+     * Print the formatted lines, up to but not including event n.
+     */
+    private static void write(StringBuilder lines, long n) {
+        if (lines.length() > 0) {
+            try {
+                PrintStream out = System.out;
+                out.print(lines);
+                out.flush();
+                lines.setLength(0);
+            } catch (RuntimeException e) {
+                failed(lines, e);
+            }
+        }
+        written = n;
+    }
+
+    /**
+     * Give up printing the trace after a failure, dropping the lines not yet printed.
+     */
+    private static void failed(StringBuilder lines, RuntimeException e) {
+        System.err.println("trace failed, no longer printing it: " + e);
+        mode = Mode.OFF;
+        lines.setLength(0);
+    }
+
+    /**
+     * Append an event to the event log, giving up on the log if it cannot be written.
+     */
+    private static void append(EventLog log, TraceEvent event, int id, int flags, int from, int to,
+                               String carousel, long time) {
+        try {
+            log.append(event, id, flags, from, to, carousel, time);
+        } catch (IOException e) {
+            System.err.println("event log failed, no longer logging: " + e);
+            eventLog = null;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * The kinds of event recorded in the output trace, and how each one is written out.
+ */
+public enum TraceEvent {
+
+    // a vial put into a compartment of a carousel
+    INSERTED,
+
+    // a vial moved from one compartment to the next by a rotation
+    ROTATED,
+
+    // a vial taken off the final compartment of the main carousel
+    REMOVED,
+
+    // a vial taken off the final compartment of the destroyer carousel
+    DESTROYED,
+
+    // a defective vial picked up from the carousel by the shuttle
+    SHUTTLE_PICKUP,
+
+    // a defective vial delivered to the inspection bay by the shuttle
+    SHUTTLE_DELIVERY,
+
+    // a defective vial inspected by the inspection bay; not part of the printed trace
+    INSPECTED,
+
+    // a defective vial tagged for destruction by the inspection bay; not part of the printed trace
+    TAGGED,
+
+    // a defective vial diverted from the scanner compartment into the bypass lane of the carousel
+    BYPASSED;
+
+    // to help format output trace
+    final private static String indentation = "                  ";
+
+    /**
+     * @return true if events of this kind appear in the printed trace
+     */
+    public boolean isPrinted() {
+        return this != INSPECTED && this != TAGGED;
+    }
+
+    /**
+     * Write the line for an event of this kind, as it appears in the output trace.
+     *
+     * @param line : where to write the line
+     * @param id : the ID of the vial
+     * @param flags : the state of the vial, from Vial.getFlags()
+     * @param from : the compartment the vial moved from, counting from 1, if any
+     * @param to : the compartment the vial moved to, counting from 1, if any
+     * @param carousel : the name of the carousel, if any
+     */
+    public void format(StringBuilder line, int id, int flags, int from, int to, String carousel) {
+        switch (this) {
+            case INSERTED:
+                Vial.format(line, id, flags).append(" inserted");
+                break;
+            case ROTATED:
+                Vial.format(line.append(indentation), id, flags)
+                        .append(" [ c").append(from).append(" -> c").append(to).append(" ] ").append(carousel);
+                break;
+            case REMOVED:
+                Vial.format(line.append(indentation).append(indentation), id, flags).append(" removed");
+                break;
+            case DESTROYED:
+                Vial.format(line.append(indentation).append(indentation), id, flags)
+                        .append(" removed (for destruction)");
+                break;
+            case SHUTTLE_PICKUP:
+                Vial.format(line.append(indentation), id, flags).append(" [ c").append(from).append(" -> S  ]");
+                break;
+            case SHUTTLE_DELIVERY:
+                Vial.format(line.append(indentation), id, flags).append(" [  S -> I  ]");
+                break;
+            case INSPECTED:
+                Vial.format(line.append(indentation), id, flags).append(" inspected");
+                break;
+            case TAGGED:
+                Vial.format(line.append(indentation), id, flags).append(" tagged");
+                break;
+            case BYPASSED:
+                Vial.format(line.append(indentation), id, flags).append(" [ c").append(from).append(" -> B  ]");
+                break;
+        }
+    }
+}
@@ -1,34 +1,160 @@
+import java.util.concurrent.ThreadFactory;
+
 /**
- * A super class for all threads in the vaccine fill/finish system
+ * A super class for all components in the vaccine fill/finish system that run on a thread of their own. A component
+ * is a Runnable: start() runs it on a new thread from a ThreadFactory, which can give platform threads (the
+ * default) or virtual threads, so the component logic does not depend on how it is run. Each component belongs to
+ * the SimulationContext of one run, which is bound to its thread while it runs.
  */
-abstract public class VaccineHandlingThread extends Thread {
+abstract public class VaccineHandlingThread implements Runnable {
+
+    // the run this component belongs to
+    protected final SimulationContext context;
+
+    // the thread this component runs on, once started
+    private volatile Thread thread;
 
-    // if this thread terminates, this exception provides a reason
-    protected static Exception terminateException;
+    // set if the component is interrupted before it has a thread
+    private volatile boolean interruptedEarly = false;
 
     /**
-     * A constructor to be called by subclasses.
+     * A constructor to be called by subclasses, for a component of the run current on this thread.
      */
     public VaccineHandlingThread() {
-        terminateException = null;
+        this(SimulationContext.current());
+    }
+
+    /**
+     * A constructor to be called by subclasses, for a component of a given run.
+     */
+    public VaccineHandlingThread(SimulationContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Start running this component on a new platform thread.
+     */
+    public void start() {
+        start(ComponentThreads.platform());
+    }
+
+    /**
+     * Start running this component on a new thread from a factory. The thread is named after the component.
+     *
+     * @param factory : where to get the thread from
+     */
+    public synchronized void start(ThreadFactory factory) {
+        if (thread != null) {
+            throw new IllegalStateException(getName() + " already started");
+        }
+        Thread t = factory.newThread(this::runInContext);
+        t.setName(getName());
+        if (interruptedEarly) {
+            t.interrupt();
+        }
+        thread = t;
+        t.start();
+    }
+
+    /**
+     * Run the component with its run's context bound to the thread, and tell the context when it stops. If the
+     * component fails, the failure is the reason the run terminates.
+     */
+    private void runInContext() {
+        context.bind();
+        try {
+            run();
+        } catch (RuntimeException e) {
+            context.terminate(e);
+            throw e;
+        } finally {
+            context.stopped(this);
+            SimulationContext.unbind();
+        }
+    }
+
+    /**
+     * @return the run this component belongs to
+     */
+    public SimulationContext getContext() {
+        return context;
+    }
+
+    /**
+     * @return the name of the component, as used for its thread
+     */
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * @return true if the component has been started and is still running
+     */
+    public boolean isAlive() {
+        Thread t = thread;
+        return t != null && t.isAlive();
+    }
+
+    /**
+     * Ask the component to stop, by interrupting its thread.
+     */
+    public void interrupt() {
+        Thread t = thread;
+        if (t == null) {
+            interruptedEarly = true;
+        } else {
+            t.interrupt();
+        }
+    }
+
+    /**
+     * @return true if the component has been asked to stop; called from the component's own thread
+     */
+    public boolean isInterrupted() {
+        return interruptedEarly || Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Wait for the component to stop.
+     *
+     * @param millis : the longest time to wait, or 0 to wait for ever
+     * @throws InterruptedException
+     *            if the thread executing is interrupted.
+     */
+    public void join(long millis) throws InterruptedException {
+        Thread t = thread;
+        if (t != null) {
+            t.join(millis);
+        }
+    }
+
+    /**
+     * Sleep the component's thread.
+     *
+     * @param millis : how long to sleep for
+     * @throws InterruptedException
+     *            if the thread executing is interrupted.
+     */
+    protected static void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
     }
 
     /**
-     * Terminate this thread, and signal other threads to terminate using the
-     * static variables.
-     * 
+     * Terminate this thread, and record the reason in the context of the run
+     * current on this thread.
+     *
      * @param exception
      *            an Exception detailing the reason for termination.
      */
     public static void terminate(Exception exception) {
-        terminateException = exception;
+        SimulationContext.current().terminate(exception);
         Thread.currentThread().interrupt();
     }
 
     /**
-     * @return the reason for the termination.
+     * @return the reason for the termination of the run current on this thread.
      */
     public static Exception getTerminateException() {
-        return terminateException;
+        return SimulationContext.current().getTerminateException();
     }
 }
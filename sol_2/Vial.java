@@ -1,10 +1,7 @@
-import java.util.Random;
-
 /**
  * A class representing a vial moving through quality control
  */
 public class Vial {
-    protected static Random r = new Random();
     
     // specifies whether the vial is defective
     protected boolean defective = false;
@@ -18,22 +15,32 @@ public class Vial {
     // the ID of this vial
     protected int id;
 
-    // the next ID that can be allocated
-    protected static int nextId = 1;
+    // when the vial was put on the main carousel, and when its current stage began, in
+    // milliseconds; stamped by LatencyStats
+    protected volatile long insertedAt;
+    protected volatile long stageAt;
+
+    // the factory used by getInstance(), one per thread
+    private static final ThreadLocal<VialFactory> factories = ThreadLocal.withInitial(VialFactory::new);
 
-    // create a new vial with a given ID
-    private Vial(int id) {
+    // the bits of getFlags()
+    public static final int DEFECTIVE = 1;
+    public static final int INSPECTED = 2;
+    public static final int TAGGED = 4;
+
+    // create a new vial with a given ID; see VialFactory
+    Vial(int id, boolean defective) {
         this.id = id;
-        if (r.nextFloat() < Params.DEFECT_PROB) {
-         	defective = true;
-        }
+        this.defective = defective;
     }
 
     /**
+     * Create a vial from the calling thread's own VialFactory. This is safe to call from any number of threads.
+     *
      * @return a new vial instance with its unique ID.
      */
     public static Vial getInstance() {
-        return new Vial(nextId++);
+        return factories.get().newVial();
     }
 
     /**
@@ -86,10 +93,35 @@ public class Vial {
     }
 
 
+    /**
+     * @return the defective, inspected and tagged flags of this vial packed into the low three bits, as used by
+     *         the output trace
+     */
+    public int getFlags() {
+        return (defective ? DEFECTIVE : 0) | (inspected ? INSPECTED : 0) | (tagged ? TAGGED : 0);
+    }
+
+    /**
+     * Write a vial as it appears in the output trace, without building intermediate strings.
+     *
+     * @param out : where to write the vial
+     * @param id : the ID of the vial
+     * @param flags : the flags of the vial, from getFlags()
+     * @return out
+     */
+    public static StringBuilder format(StringBuilder out, int id, int flags) {
+        out.append("V:");
+        if (id >= 0 && id < 100) {
+            out.append(id < 10 ? "00" : "0");
+        }
+        return out.append(id).append('(')
+                .append((flags & DEFECTIVE) != 0 ? 'd' : '-')
+                .append((flags & INSPECTED) != 0 ? 'i' : '-')
+                .append((flags & TAGGED) != 0 ? 't' : '-')
+                .append(')');
+    }
+
     public String toString() {
-    	String dFlag = defective ? "d" : "-";
-    	String iFlag = inspected ? "i" : "-";
-    	String tFlag = tagged ? "t" : "-";
-        return "V:" + String.format("%03d", id) + "(" + dFlag + iFlag + tFlag + ")";
+        return format(new StringBuilder(12), id, getFlags()).toString();
     }
 }
@@ -0,0 +1,85 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how fast vials can be created by 1, 2, 4, ... up to one producer thread per core, each with its own
+ * VialFactory, against the old scheme of one shared ID counter and one shared Random.
+ */
+public class VialCreationBenchmark {
+
+    // the old scheme: one ID counter and one Random for every producer
+    private static int sharedNextId = 1;
+    private static final Random sharedRandom = new Random();
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args : optionally the number of milliseconds to run each measurement for (default 1000)
+     */
+    public static void main(String[] args) throws InterruptedException {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.println("producers  factory vials/s  shared vials/s");
+        for (int producers = 1; producers <= cores; producers = producers < cores ? Math.min(producers * 2, cores) : cores + 1) {
+            // warm up both, then measure
+            measure(producers, millis / 4, true);
+            measure(producers, millis / 4, false);
+            double factory = measure(producers, millis, true);
+            double shared = measure(producers, millis, false);
+            System.out.println(String.format("%9d %16.0f %15.0f", producers, factory, shared));
+        }
+    }
+
+    /**
+     * @return the number of vials created per second by some producer threads
+     */
+    private static double measure(int producers, long millis, boolean factories) throws InterruptedException {
+        LongAdder created = new LongAdder();
+        CountDownLatch go = new CountDownLatch(1);
+        long[] stop = new long[1];
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            Thread thread = new Thread(() -> {
+                VialFactory factory = new VialFactory();
+                long count = 0;
+                int sink = 0;
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (System.nanoTime() < stop[0]) {
+                    for (int n = 0; n < 1000; n++) {
+                        Vial vial = factories ? factory.newVial() : sharedVial();
+                        sink ^= vial.getId();
+                    }
+                    count += 1000;
+                }
+                created.add(count + (sink == 42 ? 1 : 0));
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        stop[0] = System.nanoTime() + millis * 1_000_000;
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return created.sum() * 1000.0 / millis;
+    }
+
+    /**
+     * @return a vial made the old way
+     */
+    private static Vial sharedVial() {
+        int id;
+        synchronized (VialCreationBenchmark.class) {
+            id = sharedNextId++;
+        }
+        return new Vial(id, sharedRandom.nextFloat() < Params.DEFAULT.defectProb);
+    }
+}
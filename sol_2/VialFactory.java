@@ -0,0 +1,52 @@
+import java.util.SplittableRandom;
+
+/**
+ * Creates vials for one producer. IDs are taken from the run's SimulationContext a block at a time, so producers
+ * only touch shared state once every ID_BLOCK vials, and whether a vial is defective comes from the factory's own
+ * random stream rather than one shared by every producer. A factory is not thread-safe: each producing thread needs
+ * its own.
+ */
+public class VialFactory {
+
+    // how many IDs a factory takes from the shared counter at a time
+    public static final int ID_BLOCK = 64;
+
+    // where the blocks of IDs come from
+    private final SimulationContext context;
+
+    // the next ID of this factory's block, and the end of the block
+    private int nextId = 0;
+    private int limit = 0;
+
+    // decides which vials are defective, and how likely that is
+    private final SplittableRandom random;
+    private final double defectProb;
+
+    /**
+     * Create a new factory for the run current on this thread, with a random stream of its own.
+     */
+    public VialFactory() {
+        this(SimulationContext.current(), new SplittableRandom());
+    }
+
+    /**
+     * Create a new factory for a run that decides which vials are defective, with the run's probability, from a
+     * given random stream.
+     */
+    public VialFactory(SimulationContext context, SplittableRandom random) {
+        this.context = context;
+        this.random = random;
+        this.defectProb = context.getParams().defectProb;
+    }
+
+    /**
+     * @return a new vial with a unique ID, defective with the factory's probability
+     */
+    public Vial newVial() {
+        if (nextId == limit) {
+            nextId = context.takeIdBlock(ID_BLOCK);
+            limit = nextId + ID_BLOCK;
+        }
+        return new Vial(nextId++, random.nextDouble() < defectProb);
+    }
+}